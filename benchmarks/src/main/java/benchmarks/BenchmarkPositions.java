@@ -0,0 +1,92 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import game.Game;
+import other.context.Context;
+import other.trial.Trial;
+
+/**
+ * Fixed set of games and positions shared by all benchmarks, intended as a
+ * regression baseline when making changes to the example agents. Positions
+ * are generated by seeded random play from the initial state, so they are
+ * identical across runs.
+ * 
+ * Note that the example agents themselves use unseeded (thread-local) RNGs,
+ * so their searches are not exactly reproducible; only the positions and
+ * the playout benchmark are.
+ * 
+ * @author Dennis Soemers
+ */
+public final class BenchmarkPositions
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Large-board game with many legal moves */
+	public static final String AMAZONS = "Amazons.lud";
+	
+	/** Connection game */
+	public static final String HEX = "board/space/connection/Hex.lud";
+	
+	/** Simultaneous-move game */
+	public static final String ROCK_PAPER_SCISSORS = "mathematical/hand/Rock-Paper-Scissors.lud";
+	
+	/** Large-board game with long playouts */
+	public static final String GO = "Go.lud";
+	
+	/** Seed from which all other seeds are derived */
+	public static final long SEED = 20210914L;
+	
+	/** Number of positions per game */
+	public static final int NUM_POSITIONS = 4;
+	
+	/** Position i is reached by playing i * NUM_MOVES_BETWEEN_POSITIONS random moves */
+	public static final int NUM_MOVES_BETWEEN_POSITIONS = 6;
+	
+	/** Number of MCTS iterations per search */
+	public static final int NUM_SEARCH_ITERATIONS = 2000;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 */
+	private BenchmarkPositions()
+	{
+		// do not instantiate
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Creates our set of (non-terminal) positions for the given game, by
+	 * playing seeded random moves from the initial game state.
+	 * 
+	 * @param game
+	 * @return List of positions
+	 */
+	public static List<Context> create(final Game game)
+	{
+		final List<Context> positions = new ArrayList<Context>(NUM_POSITIONS);
+		
+		for (int i = 0; i < NUM_POSITIONS; ++i)
+		{
+			final Context context = new Context(game, new Trial(game));
+			game.start(context);
+			
+			if (i > 0)
+				game.playout(context, null, -1.0, null, 0, i * NUM_MOVES_BETWEEN_POSITIONS, new Random(SEED + i));
+			
+			if (!context.trial().over())
+				positions.add(context);
+		}
+		
+		return positions;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -0,0 +1,38 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+import mcts.ExampleDUCT;
+import other.AI;
+
+/**
+ * Iterations per second of ExampleDUCT searches (simultaneous-move games only).
+ * 
+ * @author Dennis Soemers
+ */
+public class DUCTSearchBenchmark extends SearchBenchmark
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Game to search in */
+	@Param({BenchmarkPositions.ROCK_PAPER_SCISSORS})
+	public String gameName;
+	
+	//-------------------------------------------------------------------------
+	
+	@Override
+	protected String gameName()
+	{
+		return gameName;
+	}
+	
+	@Override
+	protected AI createAgent()
+	{
+		return new ExampleDUCT();
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -0,0 +1,86 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import game.Game;
+import other.GameLoader;
+import other.context.Context;
+
+/**
+ * Throughput of seeded random playouts, cycling through our fixed set of
+ * positions. Every operation includes copying the starting position.
+ * 
+ * @author Dennis Soemers
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class PlayoutBenchmark
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Game to run playouts in */
+	@Param({BenchmarkPositions.AMAZONS, BenchmarkPositions.HEX, BenchmarkPositions.ROCK_PAPER_SCISSORS, BenchmarkPositions.GO})
+	public String gameName;
+	
+	/** The loaded game */
+	private Game game;
+	
+	/** Positions to start playouts from */
+	private List<Context> positions;
+	
+	/** Index of the position for the next playout */
+	private int nextPosition;
+	
+	/** RNG for playouts (re-seeded before every measurement iteration) */
+	private Random rng;
+	
+	//-------------------------------------------------------------------------
+	
+	@Setup(Level.Trial)
+	public void loadGame()
+	{
+		game = GameLoader.loadGameFromName(gameName);
+		positions = BenchmarkPositions.create(game);
+	}
+	
+	@Setup(Level.Iteration)
+	public void resetRNG()
+	{
+		rng = new Random(BenchmarkPositions.SEED);
+		nextPosition = 0;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	@Benchmark
+	public Context playout()
+	{
+		final Context context = new Context(positions.get(nextPosition));
+		nextPosition = (nextPosition + 1) % positions.size();
+		game.playout(context, null, -1.0, null, 0, -1, rng);
+		return context;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
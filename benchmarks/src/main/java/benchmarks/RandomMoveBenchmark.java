@@ -0,0 +1,89 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import game.Game;
+import other.GameLoader;
+import other.context.Context;
+import other.move.Move;
+import random.RandomAI;
+
+/**
+ * Moves per second selected by the random agent, cycling through our fixed
+ * set of positions. Mostly measures the cost of legal move generation.
+ * 
+ * @author Dennis Soemers
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class RandomMoveBenchmark
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Game to select moves in */
+	@Param({BenchmarkPositions.AMAZONS, BenchmarkPositions.HEX, BenchmarkPositions.ROCK_PAPER_SCISSORS, BenchmarkPositions.GO})
+	public String gameName;
+	
+	/** The loaded game */
+	private Game game;
+	
+	/** Positions to select moves in */
+	private List<Context> positions;
+	
+	/** Index of the position for the next move */
+	private int nextPosition;
+	
+	/** The agent */
+	private RandomAI agent;
+	
+	//-------------------------------------------------------------------------
+	
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		game = GameLoader.loadGameFromName(gameName);
+		positions = BenchmarkPositions.create(game);
+		agent = new RandomAI();
+		agent.initAI(game, 1);
+		nextPosition = 0;
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		agent.closeAI();
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	@Benchmark
+	public Move selectAction()
+	{
+		final Context position = positions.get(nextPosition);
+		nextPosition = (nextPosition + 1) % positions.size();
+		return agent.selectAction(game, new Context(position), -1.0, 1, -1);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -0,0 +1,117 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import game.Game;
+import other.AI;
+import other.GameLoader;
+import other.context.Context;
+import other.move.Move;
+
+/**
+ * Base class for benchmarks of full calls to selectAction() with a fixed
+ * number of MCTS iterations, cycling through our fixed set of positions.
+ * Operations are search iterations, so the reported throughput is in
+ * iterations per second; run with -prof gc to also get bytes allocated
+ * per iteration.
+ * 
+ * All agents are run single-threaded (the default for the example agents).
+ * 
+ * @author Dennis Soemers
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 10, time = 5)
+@Fork(1)
+public abstract class SearchBenchmark
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** The loaded game */
+	protected Game game;
+	
+	/** Positions to search from */
+	protected List<Context> positions;
+	
+	/** Index of the position for the next search */
+	protected int nextPosition;
+	
+	/** The agent we're benchmarking */
+	protected AI agent;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @return Name of the game to benchmark in
+	 */
+	protected abstract String gameName();
+	
+	/**
+	 * @return New instance of the agent to benchmark
+	 */
+	protected abstract AI createAgent();
+	
+	//-------------------------------------------------------------------------
+	
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		game = GameLoader.loadGameFromName(gameName());
+		positions = BenchmarkPositions.create(game);
+		agent = createAgent();
+		nextPosition = 0;
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		agent.closeAI();
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Runs a single search from the next position. We re-initialise the agent
+	 * for every search, such that no trees are re-used.
+	 * 
+	 * @param numIterations
+	 * @return The selected move
+	 */
+	protected Move search(final int numIterations)
+	{
+		final Context position = positions.get(nextPosition);
+		nextPosition = (nextPosition + 1) % positions.size();
+		
+		final int player = game.isAlternatingMoveGame() ? position.state().mover() : 1;
+		agent.initAI(game, player);
+		return agent.selectAction(game, new Context(position), -1.0, numIterations, -1);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BenchmarkPositions.NUM_SEARCH_ITERATIONS)
+	public Move search()
+	{
+		return search(BenchmarkPositions.NUM_SEARCH_ITERATIONS);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -0,0 +1,38 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+import mcts.ExampleUCT;
+import other.AI;
+
+/**
+ * Iterations per second of ExampleUCT searches.
+ * 
+ * @author Dennis Soemers
+ */
+public class UCTSearchBenchmark extends SearchBenchmark
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Game to search in */
+	@Param({BenchmarkPositions.AMAZONS, BenchmarkPositions.HEX, BenchmarkPositions.GO})
+	public String gameName;
+	
+	//-------------------------------------------------------------------------
+	
+	@Override
+	protected String gameName()
+	{
+		return gameName;
+	}
+	
+	@Override
+	protected AI createAgent()
+	{
+		return new ExampleUCT();
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
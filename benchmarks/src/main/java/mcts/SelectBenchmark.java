@@ -0,0 +1,112 @@
+package mcts;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmarks.BenchmarkPositions;
+import game.Game;
+import other.GameLoader;
+import other.RankUtils;
+import other.context.Context;
+
+/**
+ * Time per call of UCTTreePolicy.select() (ExampleUCT's selection step) 
+ * in isolation. For every position, we create a root node, expand all its
+ * children, and give each of them a single visit with the utilities of a 
+ * (seeded) random playout. Since the
+ * roots are fully expanded and no statistics are updated afterwards, each
+ * measured call runs only the UCB1 loop over the same children.
+ * 
+ * This class is in the mcts package because it needs the package-private
+ * UCTNode and UCTTreePolicy classes.
+ * 
+ * @author Dennis Soemers
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class SelectBenchmark
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Game to build trees for */
+	@Param({BenchmarkPositions.AMAZONS, BenchmarkPositions.HEX, BenchmarkPositions.GO})
+	public String gameName;
+	
+	/** Fully expanded root nodes, one per position */
+	private UCTNode[] roots;
+	
+	/** Index of the root for the next call */
+	private int nextRoot;
+	
+	/** Tree policy of ExampleUCT, with its default settings */
+	private final UCTTreePolicy treePolicy = new UCTTreePolicy();
+	
+	//-------------------------------------------------------------------------
+	
+	@Setup(Level.Trial)
+	public void buildTrees()
+	{
+		final Game game = GameLoader.loadGameFromName(gameName);
+		final List<Context> positions = BenchmarkPositions.create(game);
+		final Random rng = new Random(BenchmarkPositions.SEED);
+		
+		roots = new UCTNode[positions.size()];
+		for (int i = 0; i < roots.length; ++i)
+		{
+			final UCTNode root = new UCTNode(null, null, new Context(positions.get(i)), false);
+			
+			while (!root.isFullyExpanded())
+			{
+				final UCTNode child = treePolicy.select(root, false, null);
+				final Context playoutContext = new Context(child.context());
+				game.playout(playoutContext, null, -1.0, null, 0, -1, rng);
+				final double[] utilities = RankUtils.utilities(playoutContext);
+				
+				for (final UCTNode node : new UCTNode[]{child, root})
+				{
+					UCTNode.VISIT_COUNT.incrementAndGet(node);
+					for (int p = 1; p < utilities.length; ++p)
+					{
+						node.addScore(p, utilities[p]);
+					}
+				}
+			}
+			
+			roots[i] = root;
+		}
+		
+		nextRoot = 0;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	@Benchmark
+	public UCTNode select()
+	{
+		final UCTNode root = roots[nextRoot];
+		nextRoot = (nextRoot + 1) % roots.length;
+		return treePolicy.select(root, false, null);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -0,0 +1,130 @@
+package experiments;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import game.Game;
+import mcts.ExamplePooledUCT;
+import mcts.ExampleUCT;
+import mcts.SearchTelemetry;
+import other.AI;
+import other.GameLoader;
+import other.context.Context;
+import other.trial.Trial;
+
+/**
+ * Compares the object-based search tree of ExampleUCT against the
+ * structure-of-arrays node pool of ExamplePooledUCT, in terms of nodes
+ * created per second and heap memory retained per node.
+ * 
+ * Both agents are run from the initial game state with a fixed number of
+ * iterations and no time limit. Every search is run by a freshly created
+ * agent, such that memory grown in earlier searches (e.g. the arrays of
+ * the node pool) is not already in use before the search starts. Both 
+ * agents keep their tree in memory after a search, so the difference in
+ * used heap (after garbage collection) before and after a search is the
+ * memory retained by the tree (including Context objects). We divide
+ * this by the number of nodes the agent actually created (which can be
+ * lower than the number of iterations, e.g. when iterations end in 
+ * terminal states already in the tree).
+ * 
+ * @author Dennis Soemers
+ */
+public class CompareTreeRepresentations
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Name of game we wish to search */
+	static final String GAME_NAME = "Amazons.lud";
+	
+	/** Number of iterations per search */
+	static final int NUM_ITERATIONS = 50000;
+	
+	/** Number of searches per agent (the first one is treated as warming up) */
+	static final int NUM_REPETITIONS = 5;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 */
+	private CompareTreeRepresentations()
+	{
+		// do not instantiate
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	public static void main(final String[] args)
+	{
+		final Game game = GameLoader.loadGameFromName(GAME_NAME);
+		final Trial trial = new Trial(game);
+		final Context context = new Context(game, trial);
+		game.start(context);
+		
+		final List<Supplier<AI>> agentFactories = Arrays.asList(ExampleUCT::new, ExamplePooledUCT::new);
+		for (final Supplier<AI> agentFactory : agentFactories)
+		{
+			for (int rep = 0; rep < NUM_REPETITIONS; ++rep)
+			{
+				// A fresh agent, such that we don't retain any tree or pool from a previous search
+				final AI ai = agentFactory.get();
+				ai.initAI(game, context.state().mover());
+				final long usedBefore = usedHeap();
+				
+				final long startTime = System.nanoTime();
+				ai.selectAction(game, new Context(context), -1.0, NUM_ITERATIONS, -1);
+				final double seconds = (System.nanoTime() - startTime) / 1.0E9;
+				
+				final long usedAfter = usedHeap();
+				final long numNodes = Math.max(1L, numNodesCreated(ai));
+				ai.closeAI();
+				
+				if (rep == 0)
+					continue;
+				
+				System.out.println
+				(
+					String.format
+					(
+						"%s: %.0f nodes/s, %d bytes/node",
+						ai.friendlyName(),
+						Double.valueOf(numNodes / seconds),
+						Long.valueOf((usedAfter - usedBefore) / numNodes)
+					)
+				);
+			}
+		}
+	}
+	
+	/**
+	 * @param ai An Example UCT or Example Pooled UCT agent that just completed a search
+	 * @return Number of nodes (including the root) created by the agent in its search
+	 */
+	private static long numNodesCreated(final AI ai)
+	{
+		if (ai instanceof ExamplePooledUCT)
+			return ((ExamplePooledUCT) ai).lastNumNodes();
+		
+		final SearchTelemetry telemetry = ((ExampleUCT) ai).lastSearchTelemetry();
+		return (telemetry == null) ? 0L : telemetry.numNodesCreated() + 1L;
+	}
+	
+	/**
+	 * @return Number of bytes of heap memory in use, after (requesting) garbage collection
+	 */
+	private static long usedHeap()
+	{
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i)
+		{
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
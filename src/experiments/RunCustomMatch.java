@@ -1,9 +1,13 @@
 package experiments;
 
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 
 import game.Game;
+import mcts.ExampleUCT;
+import mcts.SearchTelemetry;
 import other.AI;
 import other.GameLoader;
 import other.context.Context;
@@ -31,6 +35,15 @@ import search.mcts.MCTS;
  * 1, UCT always player 2), whereas Ludii's built-in EvalGamesSet implementation can
  * rotate through assignments of agents to player numbers.
  * 
+ * As an example of a custom stat, the path of a file can be passed as first
+ * command-line argument. Player 2 is then our Example UCT (which collects 
+ * search telemetry) instead of Ludii's built-in UCT, and the telemetry of 
+ * every move it makes is written to that file as a line of JSON. Without 
+ * arguments, no telemetry is written.
+ * 
+ * See RunParallelMatch for a version that plays multiple games in parallel,
+ * and rotates agents through player numbers.
+ * 
  * @author Dennis Soemers
  */
 public class RunCustomMatch
@@ -66,34 +79,83 @@ public class RunCustomMatch
 		final List<AI> ais = new ArrayList<AI>();
 		ais.add(null);
 		ais.add(new RandomAI());
-		ais.add(MCTS.createUCT());	// Note: built-in Ludii UCT! Not Example UCT.
 		
-		for (int gameCounter = 0; gameCounter < NUM_GAMES; ++gameCounter)
+		// File to which we stream search telemetry as JSON lines (null if we don't)
+		final String telemetryFile = (args.length > 0) ? args[0] : null;
+		if (telemetryFile == null)
+			ais.add(MCTS.createUCT());	// Note: built-in Ludii UCT! Not Example UCT.
+		else
+			ais.add(new ExampleUCT().setCollectTelemetry(true));
+		
+		try (final PrintWriter telemetryWriter = (telemetryFile == null) ? null : new PrintWriter(telemetryFile))
 		{
-			// play a game
-			game.start(context);
-			
-			// in this example, we're still using agents that extend Ludii's
-			// abstract AI class, and therefore we call initAI() and 
-			// selectAction() on them
-			//
-			// note that it is also possible to use different kinds of
-			// agents which do not extend this class, and call whatever methods
-			// you like on them
-			for (int p = 1; p < ais.size(); ++p)
+			for (int gameCounter = 0; gameCounter < NUM_GAMES; ++gameCounter)
 			{
-				ais.get(p).initAI(game, p);
+				// play a game
+				game.start(context);
+				
+				// in this example, we're still using agents that extend Ludii's
+				// abstract AI class, and therefore we call initAI() and 
+				// selectAction() on them
+				//
+				// note that it is also possible to use different kinds of
+				// agents which do not extend this class, and call whatever methods
+				// you like on them
+				for (int p = 1; p < ais.size(); ++p)
+				{
+					ais.get(p).initAI(game, p);
+				}
+				
+				final Model model = context.model();
+				
+				while (!context.trial().over())
+				{
+					final int mover = context.state().mover();
+					model.startNewStep(context, ais, 1.0);
+				
+					if (telemetryWriter != null && ais.get(mover) instanceof ExampleUCT)
+						writeTelemetry(telemetryWriter, ((ExampleUCT) ais.get(mover)).lastSearchTelemetry(), gameCounter, context, mover);
+				}
+				
+				System.out.println("Outcome = " + context.trial().status());
 			}
-			
-			final Model model = context.model();
-			
-			while (!context.trial().over())
-			{
-				model.startNewStep(context, ais, 1.0);
-			}
-			
-			System.out.println("Outcome = " + context.trial().status());
 		}
+		catch (final FileNotFoundException e)
+		{
+			System.err.println("Could not open telemetry file: " + telemetryFile);
+		}
+	}
+	
+	/**
+	 * Writes the telemetry of the search for the move that was just made as 
+	 * a single line of JSON.
+	 * 
+	 * @param writer
+	 * @param telemetry Telemetry of the search (nothing is written if null)
+	 * @param gameCounter Index of the game we're playing
+	 * @param context Context after the move was made
+	 * @param mover Player who made the move
+	 */
+	private static void writeTelemetry
+	(
+		final PrintWriter writer,
+		final SearchTelemetry telemetry,
+		final int gameCounter,
+		final Context context,
+		final int mover
+	)
+	{
+		if (telemetry == null)
+			return;
+		
+		writer.println
+		(
+			"{\"game\":" + gameCounter +
+			",\"move\":" + (context.trial().numMoves() - 1) +
+			",\"player\":" + mover +
+			",\"search\":" + telemetry.toJson() + "}"
+		);
+		writer.flush();
 	}
 
 	//-------------------------------------------------------------------------
@@ -0,0 +1,387 @@
+package experiments;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.apache.commons.rng.core.source64.SplitMix64;
+
+import game.Game;
+import mcts.ExampleUCT;
+import other.AI;
+import other.GameLoader;
+import other.RankUtils;
+import other.context.Context;
+import other.model.Model;
+import other.trial.Trial;
+import random.RandomAI;
+
+/**
+ * A parallel version of RunCustomMatch, which plays multiple games at the
+ * same time on a pool of worker threads.
+ * 
+ * Every worker owns its own Trial and Context, and creates fresh instances
+ * of all agents (through factories) for every game it plays, so no state is
+ * shared between concurrently running games. Games are numbered, and game i
+ * always:
+ * 	- seeds the game's own RNG (used for stochastic elements of the game)
+ * 	with SEED + i, and
+ * 	- assigns agents to player numbers by rotating the list of agents i times,
+ * such that results do not depend on the number of workers or on which
+ * worker happens to play which game. Note that our agents themselves use
+ * unseeded RNGs, so their decisions are not reproducible.
+ * 
+ * Agents are given a wall-clock budget of MAX_SECONDS_PER_MOVE per move.
+ * If we run more workers (or more search threads per worker) than we have
+ * cores, agents would get less CPU time within the same wall-clock budget
+ * than in a sequential match, which makes them weaker. By default we
+ * therefore use one worker per available core, and we count every move
+ * that took noticeably longer than the budget (which indicates that the
+ * machine is overloaded).
+ * 
+ * At the end, we print the number of wins, draws and losses for every
+ * agent, as well as its average score (1 for a win, 0 for a loss, and 0.5
+ * for a draw) with a 95% confidence interval (normal approximation).
+ * If any of the workers failed, we instead throw an exception, rather than
+ * reporting the incomplete results of the other workers.
+ * In games with more than two players, any outcome other than a shared
+ * first or last place counts as a draw.
+ * 
+ * @author Dennis Soemers
+ */
+public class RunParallelMatch
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Name of game we wish to play */
+	static final String GAME_NAME = "Amazons.lud";
+	
+	/** Number of games to play */
+	static final int NUM_GAMES = 100;
+	
+	/** Number of games to play in parallel */
+	static final int NUM_WORKERS = Runtime.getRuntime().availableProcessors();
+	
+	/** Seed from which per-game seeds are derived */
+	static final long SEED = 20210914L;
+	
+	/** Wall-clock thinking time per move (in seconds) */
+	static final double MAX_SECONDS_PER_MOVE = 1.0;
+	
+	/** Moves that take longer than MAX_SECONDS_PER_MOVE plus this (in seconds) are counted as over budget */
+	static final double MOVE_TIME_TOLERANCE = 0.1;
+	
+	/** z-value for 95% confidence intervals */
+	static final double Z = 1.96;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 */
+	private RunParallelMatch()
+	{
+		// do not instantiate
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	public static void main(final String[] args)
+	{
+		// load and create game
+		final Game game = GameLoader.loadGameFromName(GAME_NAME);
+		final int numPlayers = game.players().count();
+		
+		// one factory per agent; the number of agents must equal the number of players
+		final List<Supplier<AI>> agentFactories = new ArrayList<Supplier<AI>>();
+		agentFactories.add(() -> {return new RandomAI();});
+		agentFactories.add(() -> {return new ExampleUCT();});
+		
+		if (agentFactories.size() != numPlayers)
+		{
+			System.err.println("Need exactly " + numPlayers + " agents for " + game.name() + "!");
+			return;
+		}
+		
+		final AtomicInteger nextGame = new AtomicInteger(0);
+		final ExecutorService threadPool = Executors.newFixedThreadPool(NUM_WORKERS);
+		final List<Future<MatchResults>> futures = new ArrayList<Future<MatchResults>>(NUM_WORKERS);
+		
+		final long startTime = System.currentTimeMillis();
+		for (int w = 0; w < NUM_WORKERS; ++w)
+		{
+			futures.add(threadPool.submit(() -> {return runWorker(game, agentFactories, nextGame);}));
+		}
+		
+		final MatchResults results = new MatchResults(agentFactories.size());
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		try
+		{
+			for (final Future<MatchResults> future : futures)
+			{
+				try
+				{
+					results.merge(future.get());
+				}
+				catch (final ExecutionException e)
+				{
+					failures.add(e.getCause());
+				}
+			}
+		}
+		catch (final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			failures.add(e);
+		}
+		finally
+		{
+			threadPool.shutdownNow();
+		}
+		
+		// Results without the games of failed workers would be incomplete, so we don't report them
+		if (!failures.isEmpty())
+		{
+			final RuntimeException exception = 
+					new RuntimeException
+					(
+						failures.size() + " out of " + NUM_WORKERS + " workers did not finish (" 
+						+ results.numGames + " games completed by the others)", 
+						failures.get(0)
+					);
+			
+			for (int i = 1; i < failures.size(); ++i)
+			{
+				exception.addSuppressed(failures.get(i));
+			}
+			
+			throw exception;
+		}
+		
+		System.out.println
+		(
+			String.format
+			(
+				"Played %d games of %s with %d workers in %.1f seconds",
+				Integer.valueOf(results.numGames),
+				game.name(),
+				Integer.valueOf(NUM_WORKERS),
+				Double.valueOf((System.currentTimeMillis() - startTime) / 1000.0)
+			)
+		);
+		
+		for (int a = 0; a < agentFactories.size(); ++a)
+		{
+			final int n = results.wins[a] + results.draws[a] + results.losses[a];
+			final double mean = (n == 0) ? 0.0 : results.sumScores[a] / n;
+			final double variance =
+					(n <= 1) ? 0.0 : (results.sumSquaredScores[a] - n * mean * mean) / (n - 1);
+			final double halfWidth = (n == 0) ? 0.0 : Z * Math.sqrt(Math.max(0.0, variance) / n);
+			
+			System.out.println
+			(
+				String.format
+				(
+					"Agent %d (%s): %d wins, %d draws, %d losses, score = %.3f +/- %.3f",
+					Integer.valueOf(a + 1),
+					results.agentNames[a],
+					Integer.valueOf(results.wins[a]),
+					Integer.valueOf(results.draws[a]),
+					Integer.valueOf(results.losses[a]),
+					Double.valueOf(mean),
+					Double.valueOf(halfWidth)
+				)
+			);
+		}
+		
+		if (results.numMovesOverBudget > 0)
+		{
+			System.out.println
+			(
+				String.format
+				(
+					"WARNING: %d out of %d moves took more than %.2f seconds; consider using fewer workers.",
+					Long.valueOf(results.numMovesOverBudget),
+					Long.valueOf(results.numMoves),
+					Double.valueOf(MAX_SECONDS_PER_MOVE + MOVE_TIME_TOLERANCE)
+				)
+			);
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Keeps playing games (taking game indices from the given counter) until
+	 * all games have been played.
+	 * 
+	 * @param game
+	 * @param agentFactories
+	 * @param nextGame Counter providing indices of games to play
+	 * @return Results of all games played by this worker
+	 */
+	private static MatchResults runWorker
+	(
+		final Game game,
+		final List<Supplier<AI>> agentFactories,
+		final AtomicInteger nextGame
+	)
+	{
+		final int numAgents = agentFactories.size();
+		final MatchResults results = new MatchResults(numAgents);
+		
+		final Trial trial = new Trial(game);
+		final Context context = new Context(game, trial);
+		final List<AI> ais = new ArrayList<AI>(numAgents + 1);
+		final int[] agentIndices = new int[numAgents + 1];
+		
+		for (int gameIdx = nextGame.getAndIncrement(); gameIdx < NUM_GAMES; gameIdx = nextGame.getAndIncrement())
+		{
+			// rotate agents over player numbers
+			ais.clear();
+			ais.add(null);
+			for (int p = 1; p <= numAgents; ++p)
+			{
+				agentIndices[p] = (p - 1 + gameIdx) % numAgents;
+				ais.add(agentFactories.get(agentIndices[p]).get());
+			}
+			
+			// seed the game's RNG, then start the game
+			context.rng().restoreState(new SplitMix64(Long.valueOf(SEED + gameIdx)).saveState());
+			game.start(context);
+			
+			for (int p = 1; p < ais.size(); ++p)
+			{
+				ais.get(p).initAI(game, p);
+				results.agentNames[agentIndices[p]] = ais.get(p).friendlyName();
+			}
+			
+			final Model model = context.model();
+			
+			while (!context.trial().over())
+			{
+				final long moveStartTime = System.nanoTime();
+				model.startNewStep(context, ais, MAX_SECONDS_PER_MOVE);
+				final double moveSeconds = (System.nanoTime() - moveStartTime) / 1.0E9;
+				
+				++results.numMoves;
+				if (moveSeconds > MAX_SECONDS_PER_MOVE + MOVE_TIME_TOLERANCE)
+					++results.numMovesOverBudget;
+			}
+			
+			final double[] utilities = RankUtils.utilities(context);
+			for (int p = 1; p < ais.size(); ++p)
+			{
+				results.addResult(agentIndices[p], utilities[p]);
+				ais.get(p).closeAI();
+			}
+			++results.numGames;
+		}
+		
+		return results;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Results of (a part of) a match, indexed by agent (not by player number).
+	 * 
+	 * @author Dennis Soemers
+	 */
+	private static class MatchResults
+	{
+		
+		/** Names of agents */
+		protected final String[] agentNames;
+		
+		/** Number of wins per agent */
+		protected final int[] wins;
+		
+		/** Number of draws per agent */
+		protected final int[] draws;
+		
+		/** Number of losses per agent */
+		protected final int[] losses;
+		
+		/** Sum of scores per agent */
+		protected final double[] sumScores;
+		
+		/** Sum of squared scores per agent */
+		protected final double[] sumSquaredScores;
+		
+		/** Number of games played */
+		protected int numGames = 0;
+		
+		/** Number of moves played */
+		protected long numMoves = 0L;
+		
+		/** Number of moves that took longer than the budget */
+		protected long numMovesOverBudget = 0L;
+		
+		/**
+		 * Constructor
+		 * @param numAgents
+		 */
+		public MatchResults(final int numAgents)
+		{
+			agentNames = new String[numAgents];
+			wins = new int[numAgents];
+			draws = new int[numAgents];
+			losses = new int[numAgents];
+			sumScores = new double[numAgents];
+			sumSquaredScores = new double[numAgents];
+		}
+		
+		/**
+		 * Records the result of a single game for a single agent
+		 * @param agent
+		 * @param utility Utility (in [-1, 1]) obtained by the agent
+		 */
+		public void addResult(final int agent, final double utility)
+		{
+			if (utility >= 1.0)
+				++wins[agent];
+			else if (utility <= -1.0)
+				++losses[agent];
+			else
+				++draws[agent];
+			
+			final double score = (utility + 1.0) / 2.0;
+			sumScores[agent] += score;
+			sumSquaredScores[agent] += score * score;
+		}
+		
+		/**
+		 * Adds all results from the other object to this one
+		 * @param other
+		 */
+		public void merge(final MatchResults other)
+		{
+			for (int a = 0; a < agentNames.length; ++a)
+			{
+				if (other.agentNames[a] != null)
+					agentNames[a] = other.agentNames[a];
+				
+				wins[a] += other.wins[a];
+				draws[a] += other.draws[a];
+				losses[a] += other.losses[a];
+				sumScores[a] += other.sumScores[a];
+				sumSquaredScores[a] += other.sumSquaredScores[a];
+			}
+			
+			numGames += other.numGames;
+			numMoves += other.numMoves;
+			numMovesOverBudget += other.numMovesOverBudget;
+		}
+		
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
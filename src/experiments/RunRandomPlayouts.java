@@ -0,0 +1,127 @@
+package experiments;
+
+import game.Game;
+import other.GameLoader;
+import random.RandomPlayoutEngine;
+
+/**
+ * Runs a large number of random playouts of a game in parallel (using
+ * RandomPlayoutEngine), and prints statistics about their outcomes and
+ * lengths. Useful for sanity-checking the rules of a game (e.g. whether
+ * every player can win, whether games end at all), and to get a feeling
+ * for how many playouts per second agents can expect.
+ * 
+ * Results are reproducible: running the same number of playouts with the
+ * same seed gives the same statistics, regardless of NUM_WORKERS.
+ * 
+ * @author Dennis Soemers
+ */
+public class RunRandomPlayouts
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Name of game we wish to run playouts for */
+	static final String GAME_NAME = "Amazons.lud";
+	
+	/** Number of playouts to run */
+	static final int NUM_PLAYOUTS = 1000000;
+	
+	/** Number of worker threads */
+	static final int NUM_WORKERS = Runtime.getRuntime().availableProcessors();
+	
+	/** Seed from which seeds of all playouts are derived */
+	static final long SEED = 20210914L;
+	
+	/** Number of buckets in the histogram of playout lengths we print */
+	static final int NUM_HISTOGRAM_BUCKETS = 20;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 */
+	private RunRandomPlayouts()
+	{
+		// do not instantiate
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	public static void main(final String[] args)
+	{
+		// load and create game
+		final Game game = GameLoader.loadGameFromName(GAME_NAME);
+		final int numPlayers = game.players().count();
+		
+		final RandomPlayoutEngine engine = new RandomPlayoutEngine(game, SEED);
+		final RandomPlayoutEngine.Statistics stats = engine.run(NUM_PLAYOUTS, NUM_WORKERS);
+		
+		System.out.println
+		(
+			String.format
+			(
+				"Ran %d random playouts of %s with %d workers: %.0f playouts/s, %.0f moves/s",
+				Long.valueOf(stats.numPlayouts()),
+				game.name(),
+				Integer.valueOf(NUM_WORKERS),
+				Double.valueOf(stats.playoutsPerSecond()),
+				Double.valueOf(stats.movesPerSecond())
+			)
+		);
+		
+		for (int p = 1; p <= numPlayers; ++p)
+		{
+			System.out.println
+			(
+				String.format
+				(
+					"Player %d: %d wins, %d draws, %d losses, average utility = %.4f",
+					Integer.valueOf(p),
+					Long.valueOf(stats.wins(p)),
+					Long.valueOf(stats.draws(p)),
+					Long.valueOf(stats.losses(p)),
+					Double.valueOf(stats.averageUtility(p))
+				)
+			);
+		}
+		
+		System.out.println
+		(
+			String.format
+			(
+				"Playout length: min = %d, max = %d, mean = %.1f, sd = %.1f",
+				Integer.valueOf(stats.minLength()),
+				Integer.valueOf(stats.maxLength()),
+				Double.valueOf(stats.averageLength()),
+				Double.valueOf(stats.stdLength())
+			)
+		);
+		
+		// Print histogram of lengths, with buckets of equal width
+		final int minLength = stats.minLength();
+		final int bucketWidth = Math.max(1, (stats.maxLength() - minLength + NUM_HISTOGRAM_BUCKETS) / NUM_HISTOGRAM_BUCKETS);
+		for (int bucketStart = minLength; bucketStart <= stats.maxLength(); bucketStart += bucketWidth)
+		{
+			long count = 0L;
+			for (int length = bucketStart; length < bucketStart + bucketWidth; ++length)
+			{
+				count += stats.lengthCount(length);
+			}
+			
+			System.out.println
+			(
+				String.format
+				(
+					"  [%d, %d): %d",
+					Integer.valueOf(bucketStart),
+					Integer.valueOf(bucketStart + bucketWidth),
+					Long.valueOf(count)
+				)
+			);
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
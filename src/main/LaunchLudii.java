@@ -4,6 +4,7 @@ import app.StartDesktopApp;
 import mcts.ExampleDUCT;
 import mcts.ExampleUCT;
 import random.RandomAI;
+import search.ExampleAlphaBeta;
 import utils.AIRegistry;
 
 /**
@@ -31,6 +32,9 @@ public class LaunchLudii
 		if (!AIRegistry.registerAI("Example DUCT", () -> {return new ExampleDUCT();}, (game) -> {return new ExampleDUCT().supportsGame(game);}))
 			System.err.println("WARNING! Failed to register AI because one with that name already existed!");
 		
+		if (!AIRegistry.registerAI("Example Alpha-Beta", () -> {return new ExampleAlphaBeta();}, (game) -> {return new ExampleAlphaBeta().supportsGame(game);}))
+			System.err.println("WARNING! Failed to register AI because one with that name already existed!");
+		
 		// Run Ludii
 		StartDesktopApp.main(new String[0]);
 	}
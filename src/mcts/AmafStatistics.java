@@ -0,0 +1,144 @@
+package mcts;
+
+import main.collections.FastArrayList;
+import other.move.Move;
+import other.trial.Trial;
+import utils.MoveKeys;
+
+/**
+ * All-moves-as-first (AMAF) statistics for the legal moves of a single
+ * node, as used by RAVE. For every legal move, we keep the sum of the
+ * mover's utilities over all iterations in which the mover played that
+ * move at some point after the node's state, and the number of such
+ * iterations. Moves played in a trial are matched to legal moves by their
+ * keys (see MoveKeys), using a small open-addressing hash table.
+ * 
+ * All arrays are allocated in the constructor, after which updates do not
+ * allocate any memory. Updates are not thread-safe; readers may observe
+ * slightly outdated statistics.
+ * 
+ * @author Dennis Soemers
+ */
+final class AmafStatistics
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Open-addressing hash table of move keys, for finding indices of legal moves */
+	private final long[] moveKeys;
+	
+	/** For every slot in moveKeys, the index of the legal move + 1 (0 for empty slots) */
+	private final int[] moveIndices;
+	
+	/** For every legal move, the last iteration that updated its statistics */
+	private final int[] stamps;
+	
+	/** For every legal move, the sum of the mover's utilities */
+	private final double[] scores;
+	
+	/** For every legal move, the number of iterations counted in scores */
+	private final int[] visits;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param legalMoves Legal moves of the node
+	 */
+	AmafStatistics(final FastArrayList<Move> legalMoves)
+	{
+		final int numMoves = legalMoves.size();
+		final int numSlots = Integer.highestOneBit(Math.max(1, numMoves)) << 2;
+		moveKeys = new long[numSlots];
+		moveIndices = new int[numSlots];
+		
+		for (int i = 0; i < numMoves; ++i)
+		{
+			final long key = MoveKeys.key(legalMoves.get(i));
+			final int slot = findSlot(key);
+			
+			// If multiple legal moves have the same key, only the first one gets AMAF statistics
+			if (moveIndices[slot] == 0)
+			{
+				moveKeys[slot] = key;
+				moveIndices[slot] = i + 1;
+			}
+		}
+		
+		stamps = new int[numMoves];
+		scores = new double[numMoves];
+		visits = new int[numMoves];
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Every legal move that was played by the given mover at any point
+	 * from the given index in the given trial (only its first occurrence
+	 * counts) is credited with the given utility.
+	 * 
+	 * @param trial Trial containing all moves played in the current iteration
+	 * @param firstMoveIdx Index in the trial of the first move played after the node's state
+	 * @param mover Mover in the node's state
+	 * @param utility Mover's utility in the current iteration
+	 * @param stamp Unique number of the current iteration
+	 */
+	void update(final Trial trial, final int firstMoveIdx, final int mover, final double utility, final int stamp)
+	{
+		final int numMovesPlayed = trial.numMoves();
+		for (int i = firstMoveIdx; i < numMovesPlayed; ++i)
+		{
+			final Move move = trial.getMove(i);
+			if (move.mover() != mover)
+				continue;
+			
+			final int idx = moveIndices[findSlot(MoveKeys.key(move))] - 1;
+			if (idx >= 0 && stamps[idx] != stamp)
+			{
+				stamps[idx] = stamp;
+				scores[idx] += utility;
+				visits[idx] += 1;
+			}
+		}
+	}
+	
+	/**
+	 * @param moveIdx Index of a legal move
+	 * @return Number of iterations counted in the AMAF statistics of that move
+	 */
+	int visits(final int moveIdx)
+	{
+		return visits[moveIdx];
+	}
+	
+	/**
+	 * @param moveIdx Index of a legal move with at least one visit
+	 * @return Average AMAF utility of that move
+	 */
+	double average(final int moveIdx)
+	{
+		return scores[moveIdx] / visits[moveIdx];
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param key
+	 * @return Slot of our hash table that holds the given key, or the empty
+	 * 	slot where it would be inserted
+	 */
+	private int findSlot(final long key)
+	{
+		final int mask = moveKeys.length - 1;
+		int slot = MoveKeys.index(key, mask);
+		while (moveIndices[slot] != 0 && moveKeys[slot] != key)
+		{
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -1,19 +1,25 @@
 package mcts;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import game.Game;
+import gnu.trove.map.hash.TLongObjectHashMap;
 import main.collections.FastArrayList;
+import mcts.playout.PlayoutPolicy;
+import mcts.playout.RandomPlayout;
 import other.AI;
 import other.RankUtils;
 import other.action.Action;
 import other.context.Context;
 import other.move.Move;
-import utils.AIUtils;
 
 /**
  * A simple example implementation of Decoupled UCT, for simultaneous-move
@@ -22,6 +28,24 @@ import utils.AIUtils;
  * is by no means intended to be an optimal (in terms of optimisations /
  * computational efficiency) implementation of the algorithm.
  * 
+ * Nodes can optionally be "stateless" (open-loop search), storing only 
+ * the move that led to them rather than a copy of the game state.
+ * 
+ * The search can optionally run on multiple threads sharing a single tree.
+ * Moves selected in an iteration are kept in a path buffer owned by the
+ * thread (rather than in the nodes), statistics are updated atomically,
+ * and virtual losses on selected moves make threads diverge.
+ * 
+ * Instead of UCB1, players can select moves in every node with EXP3 or
+ * regret matching, which converge to equilibria (mixed strategies) in 
+ * simultaneous-move games. Our final move is then sampled from the average
+ * strategy of the root node.
+ * 
+ * A TimeManager decides when exactly a search stops (and allocates time
+ * in game-clock mode). We never terminate early or extend searches based
+ * on visit counts, because our final move selection does not pick the 
+ * most-visited move.
+ * 
  * Only supports deterministic, simultaneous-move games.
  * 
  * @author Dennis Soemers
@@ -31,9 +55,55 @@ public class ExampleDUCT extends AI
 	
 	//-------------------------------------------------------------------------
 	
+	/**
+	 * Rules by which every player (independently) selects its moves in nodes
+	 * 
+	 * @author Dennis Soemers
+	 */
+	public enum SelectionPolicy
+	{
+		/** Deterministic UCB1 selection */
+		UCB1,
+		
+		/** Sampling from exponential weights of (importance-weighted) cumulative rewards */
+		EXP3,
+		
+		/** Sampling proportional to positive (estimated) cumulative regrets */
+		REGRET_MATCHING
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/** Buffer owned by every thread, in which select() computes strategies (grown when needed) */
+	private static final ThreadLocal<double[]> STRATEGY_BUFFERS = 
+			ThreadLocal.withInitial(() -> {return new double[64];});
+	
+	//-------------------------------------------------------------------------
+	
 	/** Our player index */
 	protected int player = -1;
 	
+	/** Number of threads sharing our search tree */
+	protected int numThreads = 1;
+	
+	/** Pool of threads for our search (threads are only created if numThreads > 1) */
+	private SearchThreadPool threadPool = new SearchThreadPool(numThreads);
+	
+	/** Whether nodes store only moves (and no game states), with states being re-derived in every iteration */
+	protected boolean openLoop = false;
+	
+	/** Decides when our searches stop */
+	protected final TimeManager timeManager = new TimeManager();
+	
+	/** Policy we use to run playouts */
+	protected PlayoutPolicy playoutPolicy = new RandomPlayout();
+	
+	/** Rule by which players select moves in nodes */
+	protected SelectionPolicy selectionPolicy = SelectionPolicy.UCB1;
+	
+	/** Probability of exploring uniformly at random (only used by EXP3 and regret matching) */
+	protected double exploration = 0.1;
+	
 	//-------------------------------------------------------------------------
 	
 	/**
@@ -56,92 +126,179 @@ public class ExampleDUCT extends AI
 		final int maxDepth
 	)
 	{
-		// Start out by creating a new root node (no tree reuse in this example)
+		// Start out by creating a new root node (no tree reuse in this example),
+		// which needs its legal moves right away for our final move selection
 		final Node root = new Node(null, context);
+		root.init(context, selectionPolicy != SelectionPolicy.UCB1);
 		
-		// We'll respect any limitations on max seconds and max iterations (don't care about max depth)
-		final long stopTime = (maxSeconds > 0.0) ? System.currentTimeMillis() + (long) (maxSeconds * 1000L) : Long.MAX_VALUE;
+		// We'll respect any limitations on max seconds and max iterations (don't care about max depth),
+		// our time manager decides when exactly to stop
+		timeManager.startSearch(maxSeconds, numThreads);
 		final int maxIts = (maxIterations >= 0) ? maxIterations : Integer.MAX_VALUE;
 				
-		int numIterations = 0;
+		// Iteration counter shared by all threads
+		final AtomicInteger numIterations = new AtomicInteger(0);
+		
+		if (numThreads <= 1)
+		{
+			search(root, game, maxIts, numIterations, false);
+		}
+		else
+		{
+			// All threads work on one and the same tree
+			final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numThreads);
+			for (int t = 0; t < numThreads; ++t)
+			{
+				tasks.add(() -> {search(root, game, maxIts, numIterations, true); return null;});
+			}
+			
+			threadPool.invokeAll(tasks);
+		}
+		
+		timeManager.endSearch();
+		
+		// Return the move we wish to play
+		return finalMoveSelection(root);
+	}
+	
+	/**
+	 * Runs MCTS iterations from the given root node until we run out of
+	 * iterations or time, or are interrupted. May be called by multiple
+	 * threads at once for the same root node, in which case useVirtualLoss
+	 * should be true.
+	 * 
+	 * @param root
+	 * @param game
+	 * @param maxIts
+	 * @param numIterations Iteration counter (shared between threads)
+	 * @param useVirtualLoss Whether to apply virtual losses to moves we select
+	 */
+	private void search
+	(
+		final Node root,
+		final Game game,
+		final int maxIts,
+		final AtomicInteger numIterations,
+		final boolean useVirtualLoss
+	)
+	{
+		final int numPlayers = game.players().count();
+		
+		// Path buffer owned by this thread: the nodes we selected from in the current
+		// iteration, and for every depth, the index of the move selected by every player
+		// and the probability with which it was selected. Arrays are reused across iterations.
+		final List<Node> path = new ArrayList<Node>();
+		final List<int[]> selectedMoves = new ArrayList<int[]>();
+		final List<double[]> selectionProbs = new ArrayList<double[]>();
+		
+		// Number of iterations this thread runs before checking the time again
+		int iterationsUntilCheck = 0;
 		
 		// Our main loop through MCTS iterations
 		while 
 		(
-			numIterations < maxIts && 					// Respect iteration limit
-			System.currentTimeMillis() < stopTime && 	// Respect time limit
-			!wantsInterrupt								// Respect GUI user clicking the pause button
+			numIterations.getAndIncrement() < maxIts && 	// Respect iteration limit
+			!wantsInterrupt									// Respect GUI user clicking the pause button
 		)
 		{
+			// Respect time limit (only checked every once in a while)
+			if (iterationsUntilCheck-- == 0)
+			{
+				if (shouldStop(numIterations.get()))
+					break;
+				
+				iterationsUntilCheck = timeManager.checkInterval() - 1;
+			}
+			
 			// Start in root node
 			Node current = root;
+			path.clear();
+			
+			// In open-loop mode, nodes don't store states; we copy the root state once,
+			// and apply moves to this copy as we traverse the tree
+			final Context openLoopContext = openLoop ? new Context(root.context) : null;
 			
 			// Traverse tree
 			while (true)
 			{
-				if (current.context.trial().over())
+				final Context currentContext = openLoop ? openLoopContext : current.context;
+				
+				if (currentContext.trial().over())
 				{
 					// We've reached a terminal state
 					break;
 				}
 				
-				current = select(current);
+				final int depth = path.size();
+				if (depth == selectedMoves.size())
+				{
+					selectedMoves.add(new int[numPlayers + 1]);
+					selectionProbs.add(new double[numPlayers + 1]);
+				}
+				
+				path.add(current);
+				current = select
+						(
+							current, currentContext, openLoop, selectedMoves.get(depth), 
+							selectionProbs.get(depth), useVirtualLoss, selectionPolicy, exploration
+						);
 				
 				if (current.totalVisitCount == 0)
 				{
-					// We've expanded a new node, time for playout!
+					// We've expanded a new node (or reached one that another thread
+					// expanded, but did not yet backpropagate to), time for playout!
 					break;
 				}
 			}
 			
-			Context contextEnd = current.context;
+			Context contextEnd = openLoop ? openLoopContext : current.context;
+			final double[] utilities;
 			
 			if (!contextEnd.trial().over())
 			{
 				// Run a playout if we don't already have a terminal game state in node
-				contextEnd = new Context(contextEnd);
-				game.playout
-				(
-					contextEnd, 
-					null, 
-					-1.0, 
-					null, 
-					0, 
-					-1, 
-					ThreadLocalRandom.current()
-				);
+				// (in open-loop mode, we already have our own copy of the state)
+				if (!openLoop)
+					contextEnd = new Context(contextEnd);
+				
+				utilities = playoutPolicy.runPlayout(contextEnd);
+			}
+			else
+			{
+				// This computes utilities for all players in a terminal state in our tree,
+				// which will all be values in [-1.0, 1.0]
+				utilities = RankUtils.utilities(contextEnd);
 			}
 			
-			// This computes utilities for all players at the of the playout,
-			// which will all be values in [-1.0, 1.0]
-			final double[] utilities = RankUtils.utilities(contextEnd);
-			
-			// Backpropagate utilities through the tree
-			while (current != null)
+			// Backpropagate utilities through the tree: the leaf only counts a visit,
+			// all nodes on our path also update statistics of the moves we selected there
+			Node.TOTAL_VISIT_COUNT.incrementAndGet(current);
+			for (int depth = path.size() - 1; depth >= 0; --depth)
 			{
-				if (current.totalVisitCount > 0)
+				final Node node = path.get(depth);
+				final int[] selected = selectedMoves.get(depth);
+				final double[] probs = selectionProbs.get(depth);
+				
+				for (int p = 1; p <= numPlayers; ++p)
 				{
-					// This node was not newly expanded in this iteration
-					for (int p = 1; p <= game.players().count(); ++p)
+					if (node.visitCounts[p].length() > 0)
 					{
-						if (current.visitCounts[p].length > 0)
-						{
-							current.visitCounts[p][current.lastSelectedMovesPerPlayer[p]] += 1;
-							current.scoreSums[p][current.lastSelectedMovesPerPlayer[p]] += utilities[p];
-						}
+						node.visitCounts[p].incrementAndGet(selected[p]);
+						node.addScore(p, selected[p], utilities[p]);
+						
+						// Importance-weighted estimate of the reward (utility rescaled to [0, 1])
+						// of the selected move, used by EXP3 and regret matching
+						if (node.rewardEstimates != null)
+							Node.addBits(node.rewardEstimates[p], selected[p], 0.5 * (utilities[p] + 1.0) / probs[p]);
+						
+						if (useVirtualLoss)
+							node.virtualLosses[p].decrementAndGet(selected[p]);
 					}
 				}
 				
-				current.totalVisitCount += 1;
-				current = current.parent;
+				Node.TOTAL_VISIT_COUNT.incrementAndGet(node);
 			}
-			
-			// Increment iteration count
-			++numIterations;
 		}
-		
-		// Return the move we wish to play
-		return finalMoveSelection(root);
 	}
 	
 	/**
@@ -149,84 +306,215 @@ public class ExampleDUCT extends AI
 	 * This method also implements the "Expansion" phase of MCTS, and creates
 	 * a new node if the given current node has unexpanded moves.
 	 * 
+	 * In open-loop search, the given context is the state reached by applying
+	 * all moves from the root to the current node, and the move leading to the 
+	 * selected node is applied to it.
+	 * 
+	 * May be called by multiple threads at once for the same node. The moves
+	 * selected for all players are written into the given array, rather than
+	 * into the node itself.
+	 * 
 	 * @param current
+	 * @param context Game state for the current node
+	 * @param openLoop Whether we're running an open-loop search
+	 * @param selectedMoves Array in which we store, for every player, the index of the selected move
+	 * @param selectionProbs Array in which we store, for every player, the probability of the selected move
+	 * @param useVirtualLoss Whether to apply virtual losses to the selected moves
+	 * @param selectionPolicy Rule by which players select moves
+	 * @param exploration Probability of exploring uniformly at random (for EXP3 and regret matching)
 	 * @return Selected node (if it has 0 visits, it will be a newly-expanded node).
 	 */
-	public static Node select(final Node current)
+	public static Node select
+	(
+		final Node current, 
+		final Context context, 
+		final boolean openLoop, 
+		final int[] selectedMoves, 
+		final double[] selectionProbs,
+		final boolean useVirtualLoss,
+		final SelectionPolicy selectionPolicy,
+		final double exploration
+	)
 	{
-		// Every player selects its move based on its own, decoupled statistics
-		final List<Action> playerMoves = new ArrayList<Action>();
-		final Game game = current.context.game();
+		// Nodes only compute their legal moves once we first select from them
+		if (current.legalMovesPerPlayer == null)
+			current.init(context, selectionPolicy != SelectionPolicy.UCB1);
+		
+		// Every player selects its move based on its own, decoupled statistics.
+		// The selected combination of moves is encoded in a single key.
+		long jointKey = 0L;
+		final Game game = context.game();
 		final int numPlayers = game.players().count();
 		
+		final double sqrtTwoParentLog = UCBTables.sqrtTwoLog(current.totalVisitCount);
+		final ThreadLocalRandom rng = ThreadLocalRandom.current();
+		double[] strategy = (selectionPolicy != SelectionPolicy.UCB1) ? STRATEGY_BUFFERS.get() : null;
+		
 		for (int p = 1; p <= numPlayers; ++p)
 		{
-			Move bestMove = null;
-	        double bestValue = Double.NEGATIVE_INFINITY;
-	        final double twoParentLog = 2.0 * Math.log(Math.max(1, current.totalVisitCount));
-	        int numBestFound = 0;
+	        final FastArrayList<Move> legalMoves = current.legalMovesPerPlayer.get(p);
+	        final AtomicIntegerArray visitCounts = current.visitCounts[p];
+	        final AtomicIntegerArray virtualLosses = current.virtualLosses[p];
+	        final int numChildren = legalMoves.size();
 	        
-	        final int numChildren = current.legalMovesPerPlayer.get(p).size();
-	
-	        for (int i = 0; i < numChildren; ++i) 
+	        if (selectionPolicy != SelectionPolicy.UCB1 && numChildren > 0)
+	        {
+	        	// Sample a move from this player's current (mixed) strategy
+	        	if (strategy.length < numChildren)
+	        	{
+	        		strategy = new double[Math.max(numChildren, 2 * strategy.length)];
+	        		STRATEGY_BUFFERS.set(strategy);
+	        	}
+	        	current.strategy(p, selectionPolicy, exploration, strategy);
+	        	final double r = rng.nextDouble();
+	        	double cumulative = 0.0;
+	        	selectedMoves[p] = numChildren - 1;
+	        	
+	        	for (int i = 0; i < numChildren - 1; ++i)
+	        	{
+	        		cumulative += strategy[i];
+	        		if (r < cumulative)
+	        		{
+	        			selectedMoves[p] = i;
+	        			break;
+	        		}
+	        	}
+	        	
+	        	selectionProbs[p] = strategy[selectedMoves[p]];
+	        }
+	        else
 	        {
-	        	final Move move = current.legalMovesPerPlayer.get(p).get(i);
-	        	final double exploit = (current.visitCounts[p][i] == 0) ? 1.0 : current.scoreSums[p][i] / current.visitCounts[p][i];
-	        	final double explore = Math.sqrt(twoParentLog / Math.max(1, current.visitCounts[p][i]));
+		        double bestValue = Double.NEGATIVE_INFINITY;
+		        int numBestFound = 0;
+	
+		        for (int i = 0; i < numChildren; ++i) 
+		        {
+		        	final int numVirtualLosses = virtualLosses.get(i);
+		        	final int visitCount = visitCounts.get(i) + numVirtualLosses;
+		        	final double exploit = (visitCount == 0) ? 1.0 : (current.scoreSum(p, i) - numVirtualLosses) * UCBTables.reciprocal(visitCount);
+		        	final double explore = sqrtTwoParentLog * UCBTables.invSqrt(visitCount);
 	        
-	            final double ucb1Value = exploit + explore;
+		            final double ucb1Value = exploit + explore;
 	            
-	            if (ucb1Value > bestValue)
-	            {
-	                bestValue = ucb1Value;
-	                bestMove = move;
-	                numBestFound = 1;
-	                current.lastSelectedMovesPerPlayer[p] = i;
-	            }
-	            else if 
-	            (
-	            	ucb1Value == bestValue && 
-	            	ThreadLocalRandom.current().nextInt() % ++numBestFound == 0
-	            )
-	            {
-	            	// this case implements random tie-breaking
-	            	bestMove = move;
-	            	current.lastSelectedMovesPerPlayer[p] = i;
-	            }
+		            if (ucb1Value > bestValue)
+		            {
+		                bestValue = ucb1Value;
+		                numBestFound = 1;
+		                selectedMoves[p] = i;
+		            }
+		            else if 
+		            (
+		            	ucb1Value == bestValue && 
+		            	rng.nextInt() % ++numBestFound == 0
+		            )
+		            {
+		            	// this case implements random tie-breaking
+		            	selectedMoves[p] = i;
+		            }
+		        }
 	        }
 	        
-	        playerMoves.add(bestMove);
+	        if (numChildren > 0)
+	        {
+	        	jointKey = current.addToJointKey(jointKey, p, selectedMoves[p]);
+	        	
+	        	if (useVirtualLoss)
+	        		virtualLosses.incrementAndGet(selectedMoves[p]);
+	        }
 		}
 		
-		if (current.children.containsKey(playerMoves))
+		final Node child;
+		synchronized (current)
+		{
+			child = current.children.get(current.childKey(jointKey, selectedMoves));
+		}
+		
+		if (child != null)
 		{
 			// We already have a node for this combination of moves
-			return current.children.get(playerMoves);
+			if (openLoop)
+				game.apply(context, child.moveFromParent);
+			
+			return child;
 		}
 		else
 		{
 			// We need to create a new node for this combination of moves
+			final List<Action> playerMoves = new ArrayList<Action>(numPlayers);
+			for (int p = 1; p <= numPlayers; ++p)
+			{
+				final FastArrayList<Move> legalMoves = current.legalMovesPerPlayer.get(p);
+				if (legalMoves.isEmpty())
+					playerMoves.add(null);
+				else
+					playerMoves.add(legalMoves.get(selectedMoves[p]));
+			}
+			
 			final Move combinedMove = new Move(playerMoves);
 			combinedMove.setMover(numPlayers + 1);
 			
-			final Context context = new Context(current.context);
-			context.game().apply(context, combinedMove);
+			final Node newNode;
+			if (openLoop)
+			{
+				// We apply the move to the given context, and don't store any state in the new node
+				game.apply(context, combinedMove);
+				newNode = new Node(combinedMove, null);
+			}
+			else
+			{
+				final Context newContext = new Context(context);
+				game.apply(newContext, combinedMove);
+				newNode = new Node(combinedMove, newContext);
+			}
+			
+			// With hashed keys, the new node needs to know which moves it was created for
+			newNode.moveIndicesFromParent = current.moveIndices(selectedMoves);
+			
+			// Another thread may have created a node for the same combination of moves
+			// in the meantime; then we use that one, and discard ours
+			synchronized (current)
+			{
+				final long key = current.childKey(jointKey, selectedMoves);
+				final Node existing = current.children.get(key);
+				if (existing != null)
+					return existing;
+				
+				current.children.put(key, newNode);
+			}
 			
-			final Node newNode = new Node(current, context);
-			current.children.put(playerMoves, newNode);
 			return newNode;
 		}
 	}
 	
 	/**
-	 * Selects the move we wish to play as the one with the
-	 * highest expected value.
+	 * Asks our time manager whether we should stop searching. Early
+	 * termination (and extension) of searches compares visit counts of the 
+	 * best two moves, but visit counts do not decide which move we play
+	 * (the highest average score, or a sample from a mixed strategy), so 
+	 * we do not pass any visit counts, which disables both.
+	 * 
+	 * @param numIterations Number of iterations performed so far (by all threads)
+	 * @return True if we should stop searching
+	 */
+	private boolean shouldStop(final int numIterations)
+	{
+		return timeManager.shouldStop(numIterations, 0, 0);
+	}
+	
+	/**
+	 * Selects the move we wish to play. With UCB1, this is the one with the
+	 * highest expected value. With EXP3 or regret matching, we sample from
+	 * our average strategy in the root node, i.e. proportionally to visit
+	 * counts, after removing the visits we expect to be due to exploration.
 	 * 
 	 * @param rootNode
 	 * @return
 	 */
 	public Move finalMoveSelection(final Node rootNode)
 	{
+		if (selectionPolicy != SelectionPolicy.UCB1)
+			return sampleAverageStrategy(rootNode);
+		
 		Move bestMove = null;
         double bestAvgScore = Double.NEGATIVE_INFINITY;
         int numBestFound = 0;
@@ -236,8 +524,8 @@ public class ExampleDUCT extends AI
         for (int i = 0; i < numChildren; ++i) 
         {
         	final Move move = rootNode.legalMovesPerPlayer.get(player).get(i);
-        	final double sumScores = rootNode.scoreSums[player][i];
-        	final int visitCount = rootNode.visitCounts[player][i];
+        	final double sumScores = rootNode.scoreSum(player, i);
+        	final int visitCount = rootNode.visitCounts[player].get(i);
         	final double avgScore = (visitCount == 0) ? -1.0 : sumScores / visitCount;
             
             if (avgScore > bestAvgScore)
@@ -260,10 +548,134 @@ public class ExampleDUCT extends AI
         return bestMove;
 	}
 	
+	/**
+	 * Samples a move from our average strategy in the given root node, as 
+	 * estimated by visit counts. Every move is selected uniformly at random
+	 * in an expected fraction of exploration / numMoves of all iterations; we
+	 * subtract these visits first, such that exploration does not give bad 
+	 * moves a noticeable probability.
+	 * 
+	 * @param rootNode
+	 * @return Sampled move
+	 */
+	private Move sampleAverageStrategy(final Node rootNode)
+	{
+		final FastArrayList<Move> legalMoves = rootNode.legalMovesPerPlayer.get(player);
+		final AtomicIntegerArray visitCounts = rootNode.visitCounts[player];
+		final int numMoves = legalMoves.size();
+		
+		if (numMoves == 0)
+			return null;
+		
+		int totalVisits = 0;
+		for (int i = 0; i < numMoves; ++i)
+		{
+			totalVisits += visitCounts.get(i);
+		}
+		
+		final double explorationVisits = exploration * totalVisits / numMoves;
+		final double[] weights = new double[numMoves];
+		double sumWeights = 0.0;
+		for (int i = 0; i < numMoves; ++i)
+		{
+			weights[i] = Math.max(0.0, visitCounts.get(i) - explorationVisits);
+			sumWeights += weights[i];
+		}
+		
+		if (sumWeights == 0.0)
+		{
+			// Nothing left after removing exploration, so just use uniform weights
+			Arrays.fill(weights, 1.0);
+			sumWeights = numMoves;
+		}
+		
+		double r = ThreadLocalRandom.current().nextDouble() * sumWeights;
+		for (int i = 0; i < numMoves - 1; ++i)
+		{
+			r -= weights[i];
+			if (r < 0.0)
+				return legalMoves.get(i);
+		}
+		
+		return legalMoves.get(numMoves - 1);
+	}
+	
+	/**
+	 * Sets the number of threads to use for our search. All threads share
+	 * a single tree.
+	 * 
+	 * @param numThreads
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleDUCT setNumThreads(final int numThreads)
+	{
+		threadPool.shutdown();
+		threadPool = new SearchThreadPool(numThreads);
+		
+		this.numThreads = numThreads;
+		return this;
+	}
+	
+	/**
+	 * Sets whether we use open-loop search, in which nodes only store the
+	 * move that led to them rather than a full copy of the game state. States
+	 * are re-derived in every iteration by copying the root state once, and 
+	 * applying moves along the path through the tree.
+	 * 
+	 * @param openLoop
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleDUCT setOpenLoop(final boolean openLoop)
+	{
+		this.openLoop = openLoop;
+		return this;
+	}
+	
+	/**
+	 * Sets the policy we use to run playouts (uniformly random playouts
+	 * until the end of the game by default).
+	 * 
+	 * @param playoutPolicy
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleDUCT setPlayoutPolicy(final PlayoutPolicy playoutPolicy)
+	{
+		this.playoutPolicy = playoutPolicy;
+		return this;
+	}
+	
+	/**
+	 * Sets the rule by which every player selects its moves in nodes (UCB1
+	 * by default). EXP3 and regret matching sample moves from mixed 
+	 * strategies, with the given probability of instead exploring uniformly
+	 * at random, and make us play a move sampled from our average strategy.
+	 * 
+	 * @param selectionPolicy
+	 * @param exploration Probability of exploring (only used by EXP3 and regret matching)
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleDUCT setSelectionPolicy(final SelectionPolicy selectionPolicy, final double exploration)
+	{
+		this.selectionPolicy = selectionPolicy;
+		this.exploration = exploration;
+		return this;
+	}
+	
+	/**
+	 * @return Our time manager, which can be used to configure game-clock mode.
+	 */
+	public TimeManager timeManager()
+	{
+		return timeManager;
+	}
+	
+	//-------------------------------------------------------------------------
+	
 	@Override
 	public void initAI(final Game game, final int playerID)
 	{
 		this.player = playerID;
+		timeManager.resetClock();
 	}
 	
 	@Override
@@ -283,76 +695,403 @@ public class ExampleDUCT extends AI
 	//-------------------------------------------------------------------------
 	
 	/**
-	 * Inner class for nodes used by example Decoupled UCT
+	 * Inner class for nodes used by example Decoupled UCT. Statistics are 
+	 * updated atomically, such that a node can be shared by multiple threads.
 	 * 
 	 * @author Dennis Soemers
 	 */
 	private static class Node
 	{
-		/** Our parent node */
-		private final Node parent;
+		/** Atomic updater for total visit counts */
+		static final AtomicIntegerFieldUpdater<Node> TOTAL_VISIT_COUNT =
+				AtomicIntegerFieldUpdater.newUpdater(Node.class, "totalVisitCount");
+		
+		/** The (combined) move that led from parent to this node */
+		private final Move moveFromParent;
 		
-		/** This objects contains the game state for this node (this is why we don't support stochastic games) */
+		/** 
+		 * This objects contains the game state for this node (this is why we don't support stochastic games).
+		 * Null for non-root nodes in open-loop search.
+		 */
 		private final Context context;
 		
 		/** Total visit count going through this node */
-		private int totalVisitCount = 0;
+		private volatile int totalVisitCount = 0;
 		
-		/** For every player, for every child move, a visit count */
-		private final int[][] visitCounts;
+		/** For every player, for every child move, a visit count (null until initialised) */
+		private AtomicIntegerArray[] visitCounts = null;
 		
-		/** For every player, for every child move, a sum of backpropagated scores */
-		private final double[][] scoreSums;
+		/** 
+		 * For every player, for every child move, a sum of backpropagated scores 
+		 * (stored as raw double bits, null until initialised) 
+		 */
+		private AtomicLongArray[] scoreSums = null;
 		
-		/** Mapping from lists of actions (one per active player) to child nodes */
-		private final Map<List<Action>, Node> children = new HashMap<List<Action>, Node>();
+		/** 
+		 * For every player, for every child move, the number of threads currently 
+		 * traversing this node with that move selected, each counting as a 
+		 * (temporary) loss (null until initialised) 
+		 */
+		private AtomicIntegerArray[] virtualLosses = null;
 		
 		/** 
-		 * For every player, the index of the legal move we selected for 
-		 * that player in this node in the last (current) MCTS iteration.
+		 * For every player, for every child move, a sum of importance-weighted
+		 * estimates of rewards (stored as raw double bits). Only used by EXP3 and
+		 * regret matching, null otherwise.
 		 */
-		private final int[] lastSelectedMovesPerPlayer;
+		private AtomicLongArray[] rewardEstimates = null;
 		
-		/** For every player index, a list of legal moves in this node */
-		private final List<FastArrayList<Move>> legalMovesPerPlayer;
+		/** 
+		 * Mapping from combinations of moves (one per active player, encoded as 
+		 * a single key by addToJointKey()) to child nodes. Only accessed while
+		 * holding this node's lock.
+		 */
+		private final TLongObjectHashMap<Node> children = new TLongObjectHashMap<Node>();
+		
+		/** 
+		 * For every player, the multiplier for that player's move index in a mixed-radix 
+		 * encoding of combinations of moves (null if such keys would not fit in a long)
+		 */
+		private long[] jointKeyMultipliers = null;
+		
+		/**
+		 * For every player, the index of the legal move that player selected in our
+		 * parent to reach this node (-1 for players without legal moves). Only 
+		 * stored if our parent uses hashed keys for its children, null otherwise.
+		 */
+		private int[] moveIndicesFromParent = null;
+		
+		/** 
+		 * For every player index, a list of legal moves in this node (null until initialised).
+		 * Assigned last by init(), such that all other arrays are ready once this is non-null.
+		 */
+		private volatile List<FastArrayList<Move>> legalMovesPerPlayer = null;
 		
 		/**
 		 * Constructor
 		 * 
-		 * @param parent
-		 * @param context
+		 * @param moveFromParent
+		 * @param context Game state for this node (null for non-root nodes in open-loop search)
 		 */
-		public Node(final Node parent, final Context context)
+		public Node(final Move moveFromParent, final Context context)
 		{
-			this.parent = parent;
+			this.moveFromParent = moveFromParent;
 			this.context = context;
-			final Game game = context.game();
-			final int numPlayers = game.players().count();
 			
-			final FastArrayList<Move> allLegalMoves = game.moves(context).moves();
+			// Legal moves are only computed once we select from this node (by calling
+			// init()), such that leaves that are never visited again don't need them
+		}
+		
+		/**
+		 * Computes legal moves and prepares arrays for statistics, unless
+		 * another thread already did so.
+		 * 
+		 * @param context Game state for this node
+		 * @param withRewardEstimates Whether we also need arrays for reward estimates
+		 */
+		public void init(final Context context, final boolean withRewardEstimates)
+		{
+			if (legalMovesPerPlayer != null)
+				return;
 			
-			// For every active player in this state, compute their legal moves
-			legalMovesPerPlayer = new ArrayList<FastArrayList<Move>>(numPlayers + 1);
-			legalMovesPerPlayer.add(null);
-			for (int p = 1; p <= numPlayers; ++p)
+			synchronized (this)
+			{
+				if (legalMovesPerPlayer != null)
+					return;
+				
+				final Game game = context.game();
+				final int numPlayers = game.players().count();
+			
+				final FastArrayList<Move> allLegalMoves = game.moves(context).moves();
+				final List<FastArrayList<Move>> movesPerPlayer = splitMovesPerPlayer(allLegalMoves, numPlayers);
+			
+				// Prepare some arrays
+				visitCounts = new AtomicIntegerArray[numPlayers + 1];
+				scoreSums = new AtomicLongArray[numPlayers + 1];
+				virtualLosses = new AtomicIntegerArray[numPlayers + 1];
+				rewardEstimates = withRewardEstimates ? new AtomicLongArray[numPlayers + 1] : null;
+				for (int p = 1; p <= numPlayers; ++p)
+				{
+					final int numMoves = movesPerPlayer.get(p).size();
+					visitCounts[p] = new AtomicIntegerArray(numMoves);
+					scoreSums[p] = new AtomicLongArray(numMoves);
+					virtualLosses[p] = new AtomicIntegerArray(numMoves);
+					
+					if (withRewardEstimates)
+						rewardEstimates[p] = new AtomicLongArray(numMoves);
+				}
+			
+				// Prepare multipliers for encoding combinations of moves as keys
+				long[] multipliers = new long[numPlayers + 1];
+				long multiplier = 1L;
+				for (int p = 1; p <= numPlayers; ++p)
+				{
+					multipliers[p] = multiplier;
+				
+					try
+					{
+						multiplier = Math.multiplyExact(multiplier, Math.max(1, movesPerPlayer.get(p).size()));
+					}
+					catch (final ArithmeticException e)
+					{
+						// Too many combinations of moves to encode exactly, will have to use hashing instead
+						multipliers = null;
+						break;
+					}
+				}
+				jointKeyMultipliers = multipliers;
+				
+				// Publish our legal moves last
+				legalMovesPerPlayer = movesPerPlayer;
+			}
+		}
+		
+		/**
+		 * @param p
+		 * @param moveIdx
+		 * @return Sum of scores backpropagated for given player's move with given index
+		 */
+		public double scoreSum(final int p, final int moveIdx)
+		{
+			return Double.longBitsToDouble(scoreSums[p].get(moveIdx));
+		}
+		
+		/**
+		 * Atomically adds the given score to the sum of scores for given 
+		 * player's move with given index
+		 * 
+		 * @param p
+		 * @param moveIdx
+		 * @param score
+		 */
+		public void addScore(final int p, final int moveIdx, final double score)
+		{
+			addBits(scoreSums[p], moveIdx, score);
+		}
+		
+		/**
+		 * Atomically adds the given value to the double stored (as raw bits)
+		 * at the given index of the given array
+		 * 
+		 * @param array
+		 * @param idx
+		 * @param value
+		 */
+		public static void addBits(final AtomicLongArray array, final int idx, final double value)
+		{
+			while (true)
 			{
-				legalMovesPerPlayer.add(AIUtils.extractMovesForMover(allLegalMoves, p));
+				final long oldBits = array.get(idx);
+				final long newBits = Double.doubleToRawLongBits(Double.longBitsToDouble(oldBits) + value);
+				
+				if (array.compareAndSet(idx, oldBits, newBits))
+					return;
 			}
+		}
+		
+		/**
+		 * Computes the current (mixed) strategy of the given player in this node,
+		 * mixed with a uniform distribution for exploration. 
+		 * 
+		 * For EXP3, probabilities are exponential in the estimated cumulative 
+		 * rewards X_i of moves. For regret matching, they are proportional to 
+		 * positive cumulative regrets X_i - S, where S is the sum of all rewards 
+		 * the player actually received in this node (uniform if no regret is
+		 * positive).
+		 * 
+		 * @param p
+		 * @param selectionPolicy EXP3 or REGRET_MATCHING
+		 * @param exploration Probability of exploring uniformly at random
+		 * @param strategy Array (at least as long as the number of legal moves
+		 * 	of given player) in which we store the probability of selecting 
+		 * 	every legal move. Entries beyond that are left untouched.
+		 */
+		public void strategy
+		(
+			final int p, 
+			final SelectionPolicy selectionPolicy, 
+			final double exploration, 
+			final double[] strategy
+		)
+		{
+			final AtomicLongArray estimates = rewardEstimates[p];
+			final int numMoves = estimates.length();
+			double sum = 0.0;
 			
-			// Prepare some arrays
-			visitCounts = new int[numPlayers + 1][];
-			for (int p = 1; p <= numPlayers; ++p)
+			if (selectionPolicy == SelectionPolicy.EXP3)
 			{
-				visitCounts[p] = new int[legalMovesPerPlayer.get(p).size()];
+				// Subtract the max before exponentiating to avoid overflow
+				final double eta = exploration / numMoves;
+				double maxEstimate = Double.NEGATIVE_INFINITY;
+				for (int i = 0; i < numMoves; ++i)
+				{
+					strategy[i] = Double.longBitsToDouble(estimates.get(i));
+					maxEstimate = Math.max(maxEstimate, strategy[i]);
+				}
+				
+				for (int i = 0; i < numMoves; ++i)
+				{
+					strategy[i] = Math.exp(eta * (strategy[i] - maxEstimate));
+					sum += strategy[i];
+				}
+			}
+			else
+			{
+				// Rewards are utilities rescaled from [-1, 1] to [0, 1]
+				double sumRewards = 0.0;
+				for (int i = 0; i < numMoves; ++i)
+				{
+					sumRewards += 0.5 * (scoreSum(p, i) + visitCounts[p].get(i));
+				}
+				
+				for (int i = 0; i < numMoves; ++i)
+				{
+					strategy[i] = Math.max(0.0, Double.longBitsToDouble(estimates.get(i)) - sumRewards);
+					sum += strategy[i];
+				}
 			}
 			
-			scoreSums = new double[numPlayers + 1][];
+			final double uniform = 1.0 / numMoves;
+			for (int i = 0; i < numMoves; ++i)
+			{
+				final double exploit = (sum > 0.0) ? strategy[i] / sum : uniform;
+				strategy[i] = (1.0 - exploration) * exploit + exploration * uniform;
+			}
+		}
+		
+		/**
+		 * Splits the given list of legal moves into lists per player, in a single
+		 * pass. If all moves have the same mover, which is the case in most 
+		 * states of most games, that player gets the given list itself (we 
+		 * never modify these lists) and all other players share an empty list.
+		 * 
+		 * @param allLegalMoves
+		 * @param numPlayers
+		 * @return List of legal moves for every player (indexed from 1)
+		 */
+		private static List<FastArrayList<Move>> splitMovesPerPlayer
+		(
+			final FastArrayList<Move> allLegalMoves, 
+			final int numPlayers
+		)
+		{
+			final List<FastArrayList<Move>> movesPerPlayer = new ArrayList<FastArrayList<Move>>(numPlayers + 1);
+			final FastArrayList<Move> noMoves = new FastArrayList<Move>(0);
+			movesPerPlayer.add(null);
 			for (int p = 1; p <= numPlayers; ++p)
 			{
-				scoreSums[p] = new double[legalMovesPerPlayer.get(p).size()];
+				movesPerPlayer.add(noMoves);
 			}
 			
-			lastSelectedMovesPerPlayer = new int[numPlayers + 1];
+			final int numMoves = allLegalMoves.size();
+			if (numMoves == 0)
+				return movesPerPlayer;
+			
+			final int firstMover = allLegalMoves.get(0).mover();
+			boolean singleMover = true;
+			for (int i = 1; i < numMoves; ++i)
+			{
+				if (allLegalMoves.get(i).mover() != firstMover)
+				{
+					singleMover = false;
+					break;
+				}
+			}
+			
+			if (singleMover)
+			{
+				if (firstMover >= 1 && firstMover <= numPlayers)
+					movesPerPlayer.set(firstMover, allLegalMoves);
+				
+				return movesPerPlayer;
+			}
+			
+			for (int i = 0; i < numMoves; ++i)
+			{
+				final Move move = allLegalMoves.get(i);
+				final int mover = move.mover();
+				
+				if (mover >= 1 && mover <= numPlayers)
+				{
+					if (movesPerPlayer.get(mover) == noMoves)
+						movesPerPlayer.set(mover, new FastArrayList<Move>());
+					
+					movesPerPlayer.get(mover).add(move);
+				}
+			}
+			
+			return movesPerPlayer;
+		}
+		
+		/**
+		 * Adds the index of the move selected by a player to a key encoding
+		 * a combination of moves. Normally, keys are a mixed-radix number 
+		 * with one digit (the index of the selected legal move) per player, 
+		 * which is exact. If the number of combinations is too large to fit in
+		 * a long, we instead mix the indices into a 64-bit hash; childKey()
+		 * then resolves any collisions.
+		 * 
+		 * @param jointKey Key for the moves selected by all players before p
+		 * @param p
+		 * @param moveIdx Index of legal move selected by player p
+		 * @return Key for moves selected by all players up to and including p
+		 */
+		public long addToJointKey(final long jointKey, final int p, final int moveIdx)
+		{
+			if (jointKeyMultipliers != null)
+				return jointKey + moveIdx * jointKeyMultipliers[p];
+			
+			return (jointKey ^ ((long) p << 32 | moveIdx)) * 0x9E3779B97F4A7C15L;
+		}
+		
+		/**
+		 * Finds the key under which the child for the given combination of moves
+		 * is stored, or should be stored if we don't have that child yet. With 
+		 * exact (mixed-radix) keys, this is simply the given key. Hashed keys 
+		 * may be the same for different combinations of moves, so we compare
+		 * the moves of the child stored under a key to the given moves, and 
+		 * probe the next key until we find a match or an unused key. Must only
+		 * be called while holding this node's lock.
+		 * 
+		 * @param jointKey Key computed by addToJointKey() for the given moves
+		 * @param selectedMoves For every player, index of the selected legal move
+		 * @return Key of the child for the given moves
+		 */
+		public long childKey(final long jointKey, final int[] selectedMoves)
+		{
+			if (jointKeyMultipliers != null)
+				return jointKey;
+			
+			final int[] indices = moveIndices(selectedMoves);
+			long key = jointKey;
+			while (true)
+			{
+				final Node child = children.get(key);
+				if (child == null || Arrays.equals(child.moveIndicesFromParent, indices))
+					return key;
+				
+				++key;
+			}
+		}
+		
+		/**
+		 * @param selectedMoves For every player, index of the selected legal move
+		 * @return The indices of the given moves to store in a child node (-1 for 
+		 * 	players without legal moves), or null if we use exact keys (which
+		 * 	already identify the moves)
+		 */
+		public int[] moveIndices(final int[] selectedMoves)
+		{
+			if (jointKeyMultipliers != null)
+				return null;
+			
+			final int numPlayers = legalMovesPerPlayer.size() - 1;
+			final int[] indices = new int[numPlayers + 1];
+			for (int p = 1; p <= numPlayers; ++p)
+			{
+				indices[p] = legalMovesPerPlayer.get(p).isEmpty() ? -1 : selectedMoves[p];
+			}
+			return indices;
 		}
 		
 	}
@@ -0,0 +1,538 @@
+package mcts;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import game.Game;
+import main.collections.FastArrayList;
+import other.AI;
+import other.RankUtils;
+import other.context.Context;
+import other.move.Move;
+
+/**
+ * A variant of the example UCT implementation, which uses a different
+ * representation of the search tree. Instead of one Node object per node,
+ * all node statistics are stored in preallocated primitive arrays (a
+ * "structure of arrays"), indexed by int node IDs. These arrays grow
+ * geometrically (such that building a tree of n nodes copies O(n) data in
+ * total), and are reused (rather than reallocated) across searches.
+ * 
+ * All children of a node occupy a contiguous range of IDs, such that
+ * the UCB1 loop in select() scans contiguous memory.
+ * 
+ * Only supports deterministic, alternating-move games.
+ * 
+ * @author Dennis Soemers
+ */
+public class ExamplePooledUCT extends AI
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Our player index */
+	protected int player = -1;
+	
+	/** Our pool of nodes (lazily created, and reused across searches) */
+	private NodePool pool = null;
+	
+	/** Number of nodes created in our last search */
+	private int lastNumNodes = 0;
+	
+	/** Number of nodes created per second in our last search */
+	private double lastNodesPerSecond = 0.0;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 */
+	public ExamplePooledUCT()
+	{
+		this.friendlyName = "Example Pooled UCT";
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	@Override
+	public Move selectAction
+	(
+		final Game game,
+		final Context context,
+		final double maxSeconds,
+		final int maxIterations,
+		final int maxDepth
+	)
+	{
+		final int numPlayers = game.players().count();
+		
+		if (pool == null || pool.stride != numPlayers + 1)
+			pool = new NodePool(numPlayers);
+		
+		// Start out by clearing our pool and creating a new root node (no tree reuse in this example)
+		pool.reset();
+		final int root = pool.allocate(1);
+		pool.initNode(root, NodePool.NONE, null, context);
+		
+		// We'll respect any limitations on max seconds and max iterations (don't care about max depth)
+		final long startTime = System.nanoTime();
+		final long stopTime = (maxSeconds > 0.0) ? System.currentTimeMillis() + (long) (maxSeconds * 1000L) : Long.MAX_VALUE;
+		final int maxIts = (maxIterations >= 0) ? maxIterations : Integer.MAX_VALUE;
+		
+		int numIterations = 0;
+		
+		// Our main loop through MCTS iterations
+		while
+		(
+			numIterations < maxIts && 					// Respect iteration limit
+			System.currentTimeMillis() < stopTime && 	// Respect time limit
+			!wantsInterrupt								// Respect GUI user clicking the pause button
+		)
+		{
+			// Start in root node
+			int current = root;
+			
+			// Traverse tree
+			while (true)
+			{
+				if (pool.contexts[current].trial().over())
+				{
+					// We've reached a terminal state
+					break;
+				}
+				
+				current = pool.select(current);
+				
+				if (pool.visitCounts[current] == 0)
+				{
+					// We've expanded a new node, time for playout!
+					break;
+				}
+			}
+			
+			Context contextEnd = pool.contexts[current];
+			
+			if (!contextEnd.trial().over())
+			{
+				// Run a playout if we don't already have a terminal game state in node
+				contextEnd = new Context(contextEnd);
+				game.playout
+				(
+					contextEnd,
+					null,
+					-1.0,
+					null,
+					0,
+					-1,
+					ThreadLocalRandom.current()
+				);
+			}
+			
+			// This computes utilities for all players at the of the playout,
+			// which will all be values in [-1.0, 1.0]
+			final double[] utilities = RankUtils.utilities(contextEnd);
+			
+			// Backpropagate utilities through the tree
+			while (current != NodePool.NONE)
+			{
+				pool.visitCounts[current] += 1;
+				final int offset = current * pool.stride;
+				for (int p = 1; p <= numPlayers; ++p)
+				{
+					pool.scoreSums[offset + p] += utilities[p];
+				}
+				current = pool.parents[current];
+			}
+			
+			// Increment iteration count
+			++numIterations;
+		}
+		
+		// Keep track of some stats
+		lastNumNodes = pool.numCreatedNodes;
+		lastNodesPerSecond = lastNumNodes / Math.max(1.0E-9, (System.nanoTime() - startTime) / 1.0E9);
+		
+		// Return the move we wish to play
+		return pool.finalMoveSelection(root);
+	}
+	
+	@Override
+	public void initAI(final Game game, final int playerID)
+	{
+		this.player = playerID;
+		
+		// Release any contexts from a previous search (but keep our arrays)
+		if (pool != null)
+			pool.reset();
+	}
+	
+	@Override
+	public void closeAI()
+	{
+		// Release all our memory
+		pool = null;
+	}
+	
+	@Override
+	public boolean supportsGame(final Game game)
+	{
+		if (game.isStochasticGame())
+			return false;
+		
+		if (!game.isAlternatingMoveGame())
+			return false;
+		
+		return true;
+	}
+	
+	@Override
+	public String generateAnalysisReport()
+	{
+		if (pool == null)
+			return null;
+		
+		return String.format
+				(
+					"%d nodes (%.0f nodes/s, %d bytes/node excluding contexts)",
+					Integer.valueOf(lastNumNodes),
+					Double.valueOf(lastNodesPerSecond),
+					Integer.valueOf(pool.bytesPerNode())
+				);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @return Number of nodes created in our last search
+	 */
+	public int lastNumNodes()
+	{
+		return lastNumNodes;
+	}
+	
+	/**
+	 * @return Number of nodes created per second in our last search
+	 */
+	public double lastNodesPerSecond()
+	{
+		return lastNodesPerSecond;
+	}
+	
+	/**
+	 * @return Number of bytes used by our pool per node created in our last
+	 * 	search (including space reserved for children that were never created),
+	 * 	excluding the Context and move list objects that nodes refer to.
+	 */
+	public int bytesPerNode()
+	{
+		return (pool == null) ? 0 : pool.bytesPerNode();
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Pool of nodes, with data for all nodes stored in parallel arrays
+	 * indexed by node ID.
+	 * 
+	 * Space for the children of a node is reserved in one go, as a
+	 * contiguous range of IDs, the first time that node is expanded.
+	 * 
+	 * @author Dennis Soemers
+	 */
+	private static class NodePool
+	{
+		/** ID used to indicate the absence of a node (e.g. parent of the root) */
+		static final int NONE = -1;
+		
+		/** Number of nodes for which we allocate space when creating a pool */
+		static final int INITIAL_CAPACITY = 1 << 14;
+		
+		/** Number of entries per node in the scoreSums array (number of players + 1) */
+		final int stride;
+		
+		/** Number of node IDs currently in use (including IDs reserved for children not yet created) */
+		int numNodes = 0;
+		
+		/** Number of nodes actually created (i.e., initialised) since the last reset */
+		int numCreatedNodes = 0;
+		
+		/** For every node, its visit count */
+		int[] visitCounts;
+		
+		/** For every node, the ID of its parent */
+		int[] parents;
+		
+		/** For every node, the ID of its first child (or NONE if not yet expanded) */
+		int[] firstChildren;
+		
+		/** For every node, the number of children created so far */
+		int[] numChildren;
+		
+		/** For every node, for every player, the sum of backpropagated scores (indexed by node * stride + player) */
+		double[] scoreSums;
+		
+		/** For every node, the move that led from its parent to this node */
+		Move[] movesFromParent;
+		
+		/** For every node, the game state (this is why we don't support stochastic games) */
+		Context[] contexts;
+		
+		/** For every node, the list of moves for which we did not yet create a child node */
+		FastArrayList<Move>[] unexpandedMoves;
+		
+		/**
+		 * Constructor
+		 * 
+		 * @param numPlayers
+		 */
+		NodePool(final int numPlayers)
+		{
+			stride = numPlayers + 1;
+			visitCounts = new int[INITIAL_CAPACITY];
+			parents = new int[INITIAL_CAPACITY];
+			firstChildren = new int[INITIAL_CAPACITY];
+			numChildren = new int[INITIAL_CAPACITY];
+			scoreSums = new double[INITIAL_CAPACITY * stride];
+			movesFromParent = new Move[INITIAL_CAPACITY];
+			contexts = new Context[INITIAL_CAPACITY];
+			unexpandedMoves = newMoveListArray(INITIAL_CAPACITY);
+		}
+		
+		/**
+		 * Clears the pool, such that all IDs can be reused. Only object
+		 * references are cleared (such that they can be garbage collected);
+		 * primitive data is overwritten when IDs are allocated again.
+		 */
+		void reset()
+		{
+			Arrays.fill(movesFromParent, 0, numNodes, null);
+			Arrays.fill(contexts, 0, numNodes, null);
+			Arrays.fill(unexpandedMoves, 0, numNodes, null);
+			numNodes = 0;
+			numCreatedNodes = 0;
+		}
+		
+		/**
+		 * Allocates a contiguous range of node IDs, growing our arrays if necessary.
+		 * We grow by at least 50% at a time, such that the cost of copying our
+		 * arrays is amortised over the nodes we allocate. Statistics of all the 
+		 * allocated nodes are reset.
+		 * 
+		 * @param num Number of IDs to allocate
+		 * @return The first allocated ID
+		 */
+		int allocate(final int num)
+		{
+			final int first = numNodes;
+			final int required = first + num;
+			
+			if (required > visitCounts.length)
+			{
+				final int newCapacity =
+						Math.max(required, visitCounts.length + (visitCounts.length >> 1));
+				
+				visitCounts = Arrays.copyOf(visitCounts, newCapacity);
+				parents = Arrays.copyOf(parents, newCapacity);
+				firstChildren = Arrays.copyOf(firstChildren, newCapacity);
+				numChildren = Arrays.copyOf(numChildren, newCapacity);
+				scoreSums = Arrays.copyOf(scoreSums, newCapacity * stride);
+				movesFromParent = Arrays.copyOf(movesFromParent, newCapacity);
+				contexts = Arrays.copyOf(contexts, newCapacity);
+				unexpandedMoves = Arrays.copyOf(unexpandedMoves, newCapacity);
+			}
+			
+			Arrays.fill(visitCounts, first, required, 0);
+			Arrays.fill(parents, first, required, NONE);
+			Arrays.fill(firstChildren, first, required, NONE);
+			Arrays.fill(numChildren, first, required, 0);
+			Arrays.fill(scoreSums, first * stride, required * stride, 0.0);
+			
+			numNodes = required;
+			return first;
+		}
+		
+		/**
+		 * Initialises a previously allocated node
+		 * 
+		 * @param node
+		 * @param parent
+		 * @param moveFromParent
+		 * @param context
+		 */
+		void initNode(final int node, final int parent, final Move moveFromParent, final Context context)
+		{
+			parents[node] = parent;
+			movesFromParent[node] = moveFromParent;
+			contexts[node] = context;
+			++numCreatedNodes;
+			
+			// We copy the list of legal moves, because we remove moves from it as we 
+			// expand them, and the game may still hold on to the list it returned.
+			// For simplicity, we just take ALL legal moves.
+			// This means we do not support simultaneous-move games.
+			unexpandedMoves[node] = new FastArrayList<Move>(context.game().moves(context).moves());
+		}
+		
+		/**
+		 * Selects child of the given "current" node according to UCB1 equation.
+		 * This method also implements the "Expansion" phase of MCTS, and creates
+		 * a new node if the given current node has unexpanded moves.
+		 * 
+		 * @param current
+		 * @return Selected node (if it has 0 visits, it will be a newly-expanded node).
+		 */
+		int select(final int current)
+		{
+			final FastArrayList<Move> unexpanded = unexpandedMoves[current];
+			
+			if (!unexpanded.isEmpty())
+			{
+				if (firstChildren[current] == NONE)
+				{
+					// First expansion of this node; reserve space for all its children
+					firstChildren[current] = allocate(unexpanded.size());
+				}
+				
+				// randomly select an unexpanded move
+				final Move move = unexpanded.remove(ThreadLocalRandom.current().nextInt(unexpanded.size()));
+				
+				// create a copy of context
+				final Context context = new Context(contexts[current]);
+				
+				// apply the move
+				context.game().apply(context, move);
+				
+				// initialise new node and return it
+				final int child = firstChildren[current] + numChildren[current];
+				numChildren[current] += 1;
+				initNode(child, current, move, context);
+				return child;
+			}
+			
+			// use UCB1 equation to select from all children, with random tie-breaking
+			int bestChild = NONE;
+	        double bestValue = Double.NEGATIVE_INFINITY;
+	        final double sqrtTwoParentLog = UCBTables.sqrtTwoLog(visitCounts[current]);
+	        int numBestFound = 0;
+	        final ThreadLocalRandom rng = ThreadLocalRandom.current();
+	        
+	        final int firstChild = firstChildren[current];
+	        final int endChild = firstChild + numChildren[current];
+	        final int mover = contexts[current].state().mover();
+	        
+	        for (int child = firstChild; child < endChild; ++child)
+	        {
+	        	final int visitCount = visitCounts[child];
+	        	final double exploit = scoreSums[child * stride + mover] * UCBTables.reciprocal(visitCount);
+	        	final double explore = sqrtTwoParentLog * UCBTables.invSqrt(visitCount);
+	            
+	            final double ucb1Value = exploit + explore;
+	            
+	            if (ucb1Value > bestValue)
+	            {
+	                bestValue = ucb1Value;
+	                bestChild = child;
+	                numBestFound = 1;
+	            }
+	            else if
+	            (
+	            	ucb1Value == bestValue &&
+	            	rng.nextInt() % ++numBestFound == 0
+	            )
+	            {
+	            	// this case implements random tie-breaking
+	            	bestChild = child;
+	            }
+	        }
+	        
+	        return bestChild;
+		}
+		
+		/**
+		 * Selects the move we wish to play using the "Robust Child" strategy
+		 * (meaning that we play the move leading to the child of the root node
+		 * with the highest visit count). If the root has no children at all (e.g.
+		 * because we ran out of time before completing any iteration), we play
+		 * a random legal move.
+		 * 
+		 * @param root
+		 * @return
+		 */
+		Move finalMoveSelection(final int root)
+		{
+			int bestChild = NONE;
+	        int bestVisitCount = Integer.MIN_VALUE;
+	        int numBestFound = 0;
+	        
+	        final int firstChild = firstChildren[root];
+	        final int endChild = firstChild + numChildren[root];
+	        
+	        for (int child = firstChild; child < endChild; ++child)
+	        {
+	        	final int visitCount = visitCounts[child];
+	            
+	            if (visitCount > bestVisitCount)
+	            {
+	                bestVisitCount = visitCount;
+	                bestChild = child;
+	                numBestFound = 1;
+	            }
+	            else if
+	            (
+	            	visitCount == bestVisitCount &&
+	            	ThreadLocalRandom.current().nextInt() % ++numBestFound == 0
+	            )
+	            {
+	            	// this case implements random tie-breaking
+	            	bestChild = child;
+	            }
+	        }
+	        
+	        if (bestChild == NONE)
+	        {
+	        	final Context context = contexts[root];
+	        	final FastArrayList<Move> legalMoves = context.game().moves(context).moves();
+	        	return legalMoves.get(ThreadLocalRandom.current().nextInt(legalMoves.size()));
+	        }
+	        
+	        return movesFromParent[bestChild];
+		}
+		
+		/**
+		 * @return Number of bytes per node ID in our arrays (assuming compressed
+		 * 	4-byte object references), excluding the objects referred to.
+		 */
+		int bytesPerId()
+		{
+			return 4 * Integer.BYTES + stride * Double.BYTES + 3 * 4;
+		}
+		
+		/**
+		 * @return Number of bytes in our arrays per node that we actually created
+		 * 	(excluding the objects referred to). This includes the IDs reserved
+		 * 	for children that were never created, which can be most of them in
+		 * 	games with many legal moves.
+		 */
+		int bytesPerNode()
+		{
+			if (numCreatedNodes == 0)
+				return 0;
+			
+			return (int) (((long) numNodes * bytesPerId()) / numCreatedNodes);
+		}
+		
+		/**
+		 * @param size
+		 * @return New array of move lists
+		 */
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		private static FastArrayList<Move>[] newMoveListArray(final int size)
+		{
+			return new FastArrayList[size];
+		}
+		
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -1,20 +1,70 @@
 package mcts;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import game.Game;
 import main.collections.FastArrayList;
+import mcts.evaluation.MoveEvaluator;
+import mcts.evaluation.StateEvaluator;
+import mcts.playout.PlayoutPolicy;
+import mcts.playout.RandomPlayout;
 import other.AI;
 import other.RankUtils;
 import other.context.Context;
 import other.move.Move;
+import other.trial.Trial;
 
 /**
- * A simple example implementation of a standard UCT approach.
+ * A simple example implementation of a standard UCT approach. The subtree
+ * matching the moves played since our previous search is reused as root.
  * 
- * Only supports deterministic, alternating-move games.
+ * The search can optionally run on multiple threads, using either root
+ * parallelisation (one independent tree per thread, with visit counts of
+ * the root's children merged for the final move selection) or tree
+ * parallelisation (a single shared tree, with virtual losses to make
+ * threads diverge).
+ * 
+ * Nodes can optionally be "stateless" (open-loop search), storing only 
+ * the move that led to them rather than a copy of the game state.
+ * 
+ * A transposition table can optionally be used to share statistics between
+ * nodes that represent the same game state, reached through different paths.
+ * The exploitation term of UCB1 then uses the shared statistics, whereas the
+ * exploration term still uses the visit counts of the nodes themselves.
+ * Nodes remember where their entries are stored; we only look up states 
+ * in the table when we expand them (which is what the table's hit rate 
+ * counts), and update them during backpropagation.
+ * 
+ * A TimeManager decides when exactly a search stops, which may be before
+ * the time limit if the decision is clear. Optionally, we keep searching
+ * (pondering) in the background while our opponents are thinking, and
+ * run multiple playouts (possibly in parallel) from every expanded node.
+ * Playouts are run by a pluggable PlayoutPolicy, and can also be replaced
+ * altogether by a heuristic StateEvaluator. In games with very many legal
+ * moves, progressive widening limits the number of children of a node
+ * as a function of its visit count, optionally expanding the moves with
+ * the highest prior values first. In closed-loop search, proven wins and
+ * losses can optionally be propagated up the tree (MCTS-Solver), and RAVE 
+ * can optionally be used to learn from all moves played in an iteration.
+ * 
+ * For long searches, a memory budget can be set for the tree. Once our 
+ * estimate of the tree's memory usage exceeds it, least-recently visited
+ * subtrees are pruned (keeping the statistics of their roots), and the 
+ * search continues.
+ * 
+ * Only supports alternating-move games, and only supports stochastic games
+ * in open-loop mode.
+ * 
+ * Most of these parts live in package-private helper classes: UCTNode,
+ * UCTTreePolicy (selection and expansion), UCTSolver, AmafStatistics (RAVE),
+ * UCTMemoryManager, MultiPlayoutRunner, Ponderer and SearchThreadPool. This
+ * class ties them together and runs the search loop.
  * 
  * @author Dennis Soemers
  */
@@ -23,9 +73,85 @@ public class ExampleUCT extends AI
 	
 	//-------------------------------------------------------------------------
 	
+	/**
+	 * Ways in which we can distribute our search over multiple threads
+	 * 
+	 * @author Dennis Soemers
+	 */
+	public enum ParallelMode
+	{
+		/** Every thread builds its own, independent tree */
+		ROOT,
+		
+		/** All threads share a single tree, using virtual losses */
+		TREE
+	}
+	
+	//-------------------------------------------------------------------------
+	
 	/** Our player index */
 	protected int player = -1;
 	
+	/** Number of threads to use for our search */
+	protected int numThreads = 1;
+	
+	/** How we distribute our search over multiple threads (only relevant if numThreads > 1) */
+	protected ParallelMode parallelMode = ParallelMode.TREE;
+	
+	/** Whether nodes store only moves (and no game states), with states being re-derived in every iteration */
+	protected boolean openLoop = false;
+	
+	/** Transposition table will have 2^ttNumBits slots (0 for no transposition table) */
+	protected int ttNumBits = 0;
+	
+	/** Our transposition table (lazily created, null if not used) */
+	private UCTTranspositionTable transpositionTable = null;
+	
+	/** Root nodes of the tree(s) built in our previous search (null if we have no tree to reuse) */
+	private UCTNode[] lastRoots = null;
+	
+	/** Thread pool used when searching with multiple threads */
+	private SearchThreadPool threadPool = new SearchThreadPool(numThreads);
+	
+	/** Whether we collect telemetry during our searches */
+	protected boolean collectTelemetry = true;
+	
+	/** Telemetry of our most recent search (null if none) */
+	private SearchTelemetry lastTelemetry = null;
+	
+	/** Decides when our searches stop */
+	protected final TimeManager timeManager = new TimeManager();
+	
+	/** Whether we keep searching (pondering) in the background while our opponents think */
+	protected boolean ponder = false;
+	
+	/** Maximum number of iterations we run while pondering (limits memory usage) */
+	protected int maxPonderIterations = 100000;
+	
+	/** Runs our search in the background while we're pondering */
+	private final Ponderer ponderer = new Ponderer();
+	
+	/** Runs multiple playouts from every newly expanded node (null if we run a single playout) */
+	private MultiPlayoutRunner multiPlayoutRunner = null;
+	
+	/** Policy we use to run playouts */
+	protected PlayoutPolicy playoutPolicy = new RandomPlayout();
+	
+	/** If not null, we use this to evaluate newly expanded nodes instead of running playouts */
+	protected StateEvaluator leafEvaluator = null;
+	
+	/** Whether we prove outcomes of nodes (MCTS-Solver), only used in closed-loop search */
+	protected boolean solver = false;
+	
+	/** Selects (and expands) nodes in closed-loop search, with progressive widening and RAVE if enabled */
+	private final UCTTreePolicy treePolicy = new UCTTreePolicy();
+	
+	/** Counter of iterations in which we update AMAF statistics (shared by all threads) */
+	private final AtomicInteger amafIterations = new AtomicInteger(0);
+	
+	/** Keeps our search tree(s) within a memory budget (if we have one) */
+	private final UCTMemoryManager memoryManager = new UCTMemoryManager();
+	
 	//-------------------------------------------------------------------------
 	
 	/**
@@ -48,137 +174,657 @@ public class ExampleUCT extends AI
 		final int maxDepth
 	)
 	{
-		// Start out by creating a new root node (no tree reuse in this example)
-		final Node root = new Node(null, null, context);
+		// We'll respect any limitations on max seconds and max iterations (don't care about max depth),
+		// our time manager decides when exactly to stop
+		timeManager.startSearch(maxSeconds, numThreads);
 		
-		// We'll respect any limitations on max seconds and max iterations (don't care about max depth)
-		final long stopTime = (maxSeconds > 0.0) ? System.currentTimeMillis() + (long) (maxSeconds * 1000L) : Long.MAX_VALUE;
+		// The tree we've been pondering on is now ours again
+		ponderer.stop();
 		final int maxIts = (maxIterations >= 0) ? maxIterations : Integer.MAX_VALUE;
-				
-		int numIterations = 0;
+		
+		// Iteration counter shared by all threads
+		final AtomicInteger numIterations = new AtomicInteger(0);
+		
+		// Every thread records its own telemetry, merged into this object afterwards
+		final long searchStartTime = System.nanoTime();
+		final SearchTelemetry telemetry = collectTelemetry ? new SearchTelemetry() : null;
+		
+		// Transposition table shared by all threads (states in open-loop nodes are unknown, so no table there)
+		if (ttNumBits > 0 && transpositionTable == null)
+			transpositionTable = new UCTTranspositionTable(ttNumBits, game.players().count());
+		final UCTTranspositionTable tt = openLoop ? null : transpositionTable;
+		
+		final UCTNode[] roots;
+		
+		if (numThreads <= 1)
+		{
+			// Start out by retrieving our root node (reusing the subtree from our previous search if possible)
+			roots = new UCTNode[]{retrieveRoot(previousRoot(0), context)};
+			if (memoryManager.hasBudget())
+				memoryManager.startTracking(roots, context, openLoop);
+			search(roots[0], game, maxIts, numIterations, false, tt, telemetry, false);
+		}
+		else
+		{
+			final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numThreads);
+			final SearchTelemetry[] threadTelemetry = new SearchTelemetry[numThreads];
+			for (int t = 0; t < numThreads; ++t)
+			{
+				threadTelemetry[t] = collectTelemetry ? new SearchTelemetry() : null;
+			}
+			
+			if (parallelMode == ParallelMode.TREE)
+			{
+				// All threads work on one and the same tree
+				roots = new UCTNode[]{retrieveRoot(previousRoot(0), context)};
+				for (int t = 0; t < numThreads; ++t)
+				{
+					final SearchTelemetry threadTel = threadTelemetry[t];
+					tasks.add(() -> {search(roots[0], game, maxIts, numIterations, true, tt, threadTel, false); return null;});
+				}
+			}
+			else
+			{
+				// Every thread gets its own tree
+				roots = new UCTNode[numThreads];
+				for (int t = 0; t < numThreads; ++t)
+				{
+					final UCTNode root = retrieveRoot(previousRoot(t), context);
+					roots[t] = root;
+					final SearchTelemetry threadTel = threadTelemetry[t];
+					tasks.add(() -> {search(root, game, maxIts, numIterations, false, tt, threadTel, false); return null;});
+				}
+			}
+			
+			if (memoryManager.hasBudget())
+				memoryManager.startTracking(roots, context, openLoop);
+			threadPool.invokeAll(tasks);
+			
+			if (telemetry != null)
+			{
+				for (final SearchTelemetry threadTel : threadTelemetry)
+				{
+					telemetry.merge(threadTel);
+				}
+			}
+		}
+		
+		timeManager.endSearch();
+		
+		// Remember our tree(s), such that we can reuse them in our next search
+		lastRoots = roots;
+		
+		if (telemetry != null)
+		{
+			telemetry.setDurationNanos(System.nanoTime() - searchStartTime);
+			
+			// We only keep track of our tree's memory usage if we have a budget for it
+			if (memoryManager.hasBudget())
+				telemetry.setTreeBytes(memoryManager.treeBytes());
+			for (final UCTNode root : roots)
+			{
+				for (final UCTNode child : root.children)
+				{
+					telemetry.addRootVisits(child.moveFromParent, child.visitCount);
+				}
+			}
+		}
+		lastTelemetry = telemetry;
+		
+		// Return the move we wish to play
+		if (roots.length == 1)
+		{
+			final Move move = finalMoveSelection(roots[0]);
+		
+			if (ponder && !wantsInterrupt)
+				startPondering(game, roots[0], context, move, tt);
+			
+			return move;
+		}
+		
+		// Root parallelisation has no single tree to ponder on
+		return finalMoveSelection(roots);
+	}
+	
+	/**
+	 * Runs MCTS iterations from the given root node until we run out of
+	 * iterations or time, or are interrupted. May be called by multiple
+	 * threads at once for the same root node, in which case useVirtualLoss
+	 * should be true. When pondering, we ignore our time manager, and run
+	 * until told to stop.
+	 * 
+	 * @param root
+	 * @param game
+	 * @param maxIts
+	 * @param numIterations Iteration counter (shared between threads)
+	 * @param useVirtualLoss Whether to apply virtual losses to nodes we traverse
+	 * @param tt Transposition table (null if not used)
+	 * @param telemetry Object in which to record statistics of our iterations (null if not used)
+	 * @param pondering Whether we're pondering in the background
+	 */
+	private void search
+	(
+		final UCTNode root,
+		final Game game,
+		final int maxIts,
+		final AtomicInteger numIterations,
+		final boolean useVirtualLoss,
+		final UCTTranspositionTable tt,
+		final SearchTelemetry telemetry,
+		final boolean pondering
+	)
+	{
+		final int numPlayers = game.players().count();
+		
+		// Number of iterations started by this thread
+		int numThreadIterations = 0;
+		
+		// Number of iterations this thread runs before checking the time again
+		int iterationsUntilCheck = 0;
 		
 		// Our main loop through MCTS iterations
 		while 
 		(
-			numIterations < maxIts && 					// Respect iteration limit
-			System.currentTimeMillis() < stopTime && 	// Respect time limit
-			!wantsInterrupt								// Respect GUI user clicking the pause button
+			numIterations.getAndIncrement() < maxIts && 	// Respect iteration limit
+			!wantsInterrupt && 								// Respect GUI user clicking the pause button
+			!(pondering && ponderer.stopRequested()) &&		// Respect request to stop pondering
+			root.provenUtilities == null					// No need to search once we know the outcome
 		)
 		{
-			// Start in root node
-			Node current = root;
+			// Respect time limit (only checked every once in a while, and not when pondering)
+			if (iterationsUntilCheck-- == 0)
+			{
+				if (!pondering && shouldStop(root, numIterations.get()))
+					break;
+				
+				iterationsUntilCheck = timeManager.checkInterval() - 1;
+			}
+			
+			// Counters are recorded for every iteration, but phases are only timed in a sample of iterations
+			final boolean timed = 
+					((numThreadIterations++ & (SearchTelemetry.SAMPLE_INTERVAL - 1)) == 0 && telemetry != null);
+			
+			// With a memory budget, we prune our tree(s) before starting an iteration 
+			// if necessary, and then make sure no other thread prunes during our iteration
+			final boolean trackMemory = memoryManager.hasBudget();
+			final long lruStamp = trackMemory ? memoryManager.startIteration(root, telemetry) : 0L;
 			
-			// Traverse tree
-			while (true)
+			try
 			{
-				if (current.context.trial().over())
+				// Start in root node
+				UCTNode current = root;
+				
+				// Telemetry for this iteration (only timed if this is a sampled iteration)
+				long time = timed ? System.nanoTime() : 0L;
+				long selectionNanos = 0L;
+				long expansionNanos = 0L;
+				int depth = 0;
+				boolean expanded = false;
+				
+				// In open-loop mode, nodes don't store states; we copy the root state once,
+				// and apply moves to this copy as we traverse the tree
+				final Context openLoopContext = openLoop ? new Context(root.context) : null;
+				
+				// Traverse tree
+				while (true)
 				{
-					// We've reached a terminal state
-					break;
+					// A node that was pruned needs its game state again
+					if (!openLoop && current.context == null && current.restoreContext())
+						memoryManager.contextRestored();
+					
+					final Context currentContext = openLoop ? openLoopContext : current.context;
+					
+					if (currentContext.trial().over())
+					{
+						// We've reached a terminal state
+						break;
+					}
+					
+					if (current.provenUtilities != null)
+					{
+						// We've reached a node with a proven outcome, no need to go any deeper
+						break;
+					}
+					
+					if (openLoop)
+						current = UCTTreePolicy.selectOpenLoop(current, openLoopContext, useVirtualLoss);
+					else
+					{
+						if ((telemetry != null || trackMemory) && current.legalMoves == null)
+						{
+							// Time the lazy generation of legal moves separately (also included in selection / 
+							// expansion times), and count the memory they use
+							final long moveGenStartTime = timed ? System.nanoTime() : 0L;
+							if (current.generateLegalMoves())
+							{
+								if (telemetry != null)
+									telemetry.recordMoveGeneration(timed ? System.nanoTime() - moveGenStartTime : 0L);
+								
+								if (trackMemory)
+									memoryManager.legalMovesGenerated(current);
+							}
+						}
+						
+						current = treePolicy.select(current, useVirtualLoss, tt);
+					}
+					
+					++depth;
+					expanded = (current.visitCount == 0);
+					
+					if (trackMemory)
+						memoryManager.nodeVisited(current, lruStamp, expanded);
+					
+					if (timed)
+					{
+						final long now = System.nanoTime();
+						if (expanded)
+							expansionNanos += now - time;
+						else
+							selectionNanos += now - time;
+						time = now;
+					}
+					
+					if (expanded)
+					{
+						// We've expanded a new node, time for playout!
+						break;
+					}
 				}
 				
-				current = select(current);
+				Context contextEnd = openLoop ? openLoopContext : current.context;
+				
+				// Terminal states in our tree have proven outcomes
+				if (solver && !openLoop && contextEnd.trial().over())
+					UCTSolver.proveTerminal(current, contextEnd);
+				
+				double[] utilities = current.provenUtilities;
+				int numPlayouts = 0;
 				
-				if (current.visitCount == 0)
+				if (utilities == null && !contextEnd.trial().over())
 				{
-					// We've expanded a new node, time for playout!
-					break;
+					if (leafEvaluator != null)
+					{
+						// Evaluate the state heuristically, instead of running any playouts
+						utilities = evaluateLeaf(current, contextEnd);
+					}
+					else if (multiPlayoutRunner != null)
+					{
+						// Run multiple playouts from the same state, and average their utilities
+						utilities = multiPlayoutRunner.runPlayouts(playoutPolicy, contextEnd, numPlayers);
+						numPlayouts = multiPlayoutRunner.numPlayouts();
+					}
+					else
+					{
+						// Run a playout if we don't already have a terminal game state in node
+						// (in open-loop mode, we already have our own copy of the state)
+						if (!openLoop)
+							contextEnd = new Context(contextEnd);
+					
+						utilities = playoutPolicy.runPlayout(contextEnd);
+						numPlayouts = 1;
+					}
+				}
+				
+				final long playoutEndTime = timed ? System.nanoTime() : 0L;
+				
+				// This computes utilities for all players in a terminal state in our tree,
+				// which will all be values in [-1.0, 1.0]
+				if (utilities == null)
+					utilities = RankUtils.utilities(contextEnd);
+				
+				// For RAVE, all moves played after a node's state (in the tree as well as in
+				// the playout, if we ran a single one) are in the trial of our final state
+				final Trial amafTrial = (treePolicy.usesRave() && !openLoop) ? contextEnd.trial() : null;
+				final int amafStamp = (amafTrial == null) ? 0 : amafIterations.incrementAndGet();
+				
+				// Backpropagate utilities through the tree, and propagate a proven 
+				// outcome upwards for as long as that proves the outcomes of parents
+				boolean propagateProof = (utilities == current.provenUtilities);
+				while (current != null)
+				{
+					if (amafTrial != null)
+						current.updateAmaf(amafTrial, utilities, amafStamp);
+					
+					UCTNode.VISIT_COUNT.incrementAndGet(current);
+					for (int p = 1; p <= numPlayers; ++p)
+					{
+						current.addScore(p, utilities[p]);
+					}
+					
+					if (tt != null)
+						current.ttSlot = tt.update(current.hash, utilities);
+					
+					// Only the root node never receives a virtual loss
+					if (useVirtualLoss && current.parent != null)
+						UCTNode.VIRTUAL_LOSSES.decrementAndGet(current);
+					
+					current = current.parent;
+					
+					if (propagateProof && current != null)
+						propagateProof = UCTSolver.tryProve(current);
+				}
+				
+				if (telemetry != null)
+				{
+					telemetry.recordIteration
+					(
+						depth, expanded, numPlayouts, timed, selectionNanos, expansionNanos,
+						playoutEndTime - time, timed ? System.nanoTime() - playoutEndTime : 0L
+					);
 				}
 			}
+			finally
+			{
+				// Also release the lock if our iteration failed, or we could never prune again
+				if (trackMemory)
+					memoryManager.endIteration();
+			}
+		}
+	}
+	
+	/**
+	 * Evaluates the state of the given (non-terminal) leaf node with our 
+	 * leaf evaluator. Nodes that store their game state also store the 
+	 * evaluator's features of that state, such that the features of their
+	 * children can be derived from them, rather than computed from scratch.
+	 * 
+	 * @param node
+	 * @param context Game state for the node
+	 * @return Estimated utilities for all players (indexed from 1)
+	 */
+	private double[] evaluateLeaf(final UCTNode node, final Context context)
+	{
+		if (node.context == null)
+		{
+			// Open-loop node, state may be different in every visit
+			return leafEvaluator.evaluate(context);
+		}
+		
+		double[] features = node.evaluatorFeatures;
+		if (features == null)
+		{
+			final UCTNode parent = node.parent;
+			final Context parentContext = (parent == null) ? null : parent.context;
 			
-			Context contextEnd = current.context;
-			
-			if (!contextEnd.trial().over())
+			if (parentContext == null)
 			{
-				// Run a playout if we don't already have a terminal game state in node
-				contextEnd = new Context(contextEnd);
-				game.playout
-				(
-					contextEnd, 
-					null, 
-					-1.0, 
-					null, 
-					0, 
-					-1, 
-					ThreadLocalRandom.current()
-				);
+				features = leafEvaluator.computeFeatures(context);
+			}
+			else
+			{
+				// Our root node is never evaluated, so it may not have features yet
+				double[] parentFeatures = parent.evaluatorFeatures;
+				if (parentFeatures == null)
+				{
+					parentFeatures = leafEvaluator.computeFeatures(parentContext);
+					parent.evaluatorFeatures = parentFeatures;
+				}
+				
+				features = (parentFeatures == null) ? null : leafEvaluator.updateFeatures(parentFeatures, parentContext, context);
 			}
 			
-			// This computes utilities for all players at the of the playout,
-			// which will all be values in [-1.0, 1.0]
-			final double[] utilities = RankUtils.utilities(contextEnd);
+			node.evaluatorFeatures = features;
+		}
+		
+		// If we already generated legal moves, the evaluator doesn't need to do so again
+		final FastArrayList<Move> legalMoves = node.legalMoves;
+		final int numLegalMoves = (legalMoves != null) ? legalMoves.size() : -1;
+		
+		return leafEvaluator.evaluate(context, numLegalMoves, features);
+	}
+	
+	/**
+	 * Starts pondering in a background thread, from the node reached by
+	 * playing the given move from the given root node. That node is detached
+	 * from the rest of the tree, and becomes the root node to reuse in our
+	 * next search (which will first walk down it along the moves played by
+	 * our opponents in the meantime). If the given move has no node, we don't
+	 * ponder.
+	 * 
+	 * @param game
+	 * @param root Root node of the search we just completed
+	 * @param context Game state for root node
+	 * @param move Move we are about to play
+	 * @param tt Transposition table (null if not used)
+	 */
+	private void startPondering
+	(
+		final Game game, 
+		final UCTNode root, 
+		final Context context, 
+		final Move move, 
+		final UCTTranspositionTable tt
+	)
+	{
+		UCTNode ponderRoot = null;
+		for (final UCTNode child : root.children)
+		{
+			if (child.moveFromParent == move)
+			{
+				ponderRoot = child;
+				break;
+			}
+		}
+		
+		// The move may not have a node (e.g. if we picked a random move because we
+		// did not complete any iterations), in which case there's nothing to ponder on
+		if (ponderRoot == null)
+			return;
+		
+		if (ponderRoot.context == null)
+		{
+			// Open-loop (or pruned) node, need to create a game state for it
+			final Context ponderContext = new Context(context);
 			
-			// Backpropagate utilities through the tree
-			while (current != null)
+			for (final Move legalMove : game.moves(ponderContext).moves())
 			{
-				current.visitCount += 1;
-				for (int p = 1; p <= game.players().count(); ++p)
+				if (legalMove.equals(move))
 				{
-					current.scoreSums[p] += utilities[p];
+					game.apply(ponderContext, legalMove);
+					break;
 				}
-				current = current.parent;
 			}
 			
-			// Increment iteration count
-			++numIterations;
+			ponderRoot.context = ponderContext;
 		}
 		
-		// Return the move we wish to play
-		return finalMoveSelection(root);
+		// Detach from old root, and remember it as root for our next search
+		ponderRoot.parent = null;
+		lastRoots = new UCTNode[]{ponderRoot};
+		
+		if (ponderRoot.context.trial().over())
+			return;
+		
+		final UCTNode searchRoot = ponderRoot;
+		ponderer.start
+		(
+			() -> 
+			{
+				if (memoryManager.hasBudget())
+					memoryManager.startTracking(new UCTNode[]{searchRoot}, searchRoot.context, openLoop);
+				
+				search(searchRoot, game, maxPonderIterations, new AtomicInteger(0), false, tt, null, true);
+			}
+		);
+	}
+	
+	/**
+	 * Asks our time manager whether we should stop searching, given the
+	 * visit counts of the children of the given root node. Children that
+	 * are proven losses for us are ignored, since we won't play them anyway.
+	 * 
+	 * With root parallelisation, our final move selection sums visit counts
+	 * over all trees, so the visit counts in a single tree say nothing about 
+	 * whether the decision is clear. We then only stop at the time limit 
+	 * (without early termination or extensions).
+	 * 
+	 * @param root
+	 * @param numIterations Number of iterations performed so far (by all threads)
+	 * @return True if we should stop searching
+	 */
+	private boolean shouldStop(final UCTNode root, final int numIterations)
+	{
+		if (numThreads > 1 && parallelMode == ParallelMode.ROOT)
+			return timeManager.shouldStop(numIterations, 0, 0);
+		
+		int bestVisits = 0;
+		int secondBestVisits = 0;
+		final int mover = root.context.state().mover();
+		
+		// Other threads may be adding children to the root at the same time
+		synchronized (root)
+		{
+			for (final UCTNode child : root.children)
+			{
+				if (UCTSolver.isProvenLoss(child, mover))
+					continue;
+				
+				final int visitCount = child.visitCount;
+				if (visitCount > bestVisits)
+				{
+					secondBestVisits = bestVisits;
+					bestVisits = visitCount;
+				}
+				else if (visitCount > secondBestVisits)
+				{
+					secondBestVisits = visitCount;
+				}
+			}
+		}
+		
+		return timeManager.shouldStop(numIterations, bestVisits, secondBestVisits);
+	}
+	
+	/**
+	 * @param idx
+	 * @return Root node of the idx'th tree of our previous search, or null if there is none
+	 */
+	private UCTNode previousRoot(final int idx)
+	{
+		if (lastRoots == null || idx >= lastRoots.length)
+			return null;
+		
+		return lastRoots[idx];
 	}
 	
 	/**
-	 * Selects child of the given "current" node according to UCB1 equation.
-	 * This method also implements the "Expansion" phase of MCTS, and creates
-	 * a new node if the given current node has unexpanded moves.
+	 * Returns the node that should be used as root node for a search from the
+	 * given context. We walk down the tree of our previous search along the
+	 * moves that were actually played since then, and promote the subtree we
+	 * end up in to the new root (dropping its parent and siblings, such that
+	 * they can be garbage collected). If no such subtree exists (for example
+	 * because a move was played that we never expanded), a new root node
+	 * is created. The root node never stores the given context itself, only
+	 * a copy of it.
 	 * 
-	 * @param current
-	 * @return Selected node (if it has 0 visits, it will be a newly-expanded node).
+	 * @param previousRoot Root node of our previous search (may be null)
+	 * @param context
+	 * @return Root node for our next search.
 	 */
-	public static Node select(final Node current)
+	private UCTNode retrieveRoot(final UCTNode previousRoot, final Context context)
 	{
-		if (!current.unexpandedMoves.isEmpty())
+		UCTNode node = previousRoot;
+		
+		if (node != null)
 		{
-			// randomly select an unexpanded move
-			final Move move = current.unexpandedMoves.remove(
-					ThreadLocalRandom.current().nextInt(current.unexpandedMoves.size()));
+			final Trial newTrial = context.trial();
+			final int numOldMoves = node.context.trial().numMoves();
+			final int numNewMoves = newTrial.numMoves();
+			
+			if (numNewMoves < numOldMoves)
+			{
+				// Moves have been undone, our old tree is useless
+				node = null;
+			}
+			
+			for (int i = numOldMoves; i < numNewMoves && node != null; ++i)
+			{
+				final Move playedMove = newTrial.getMove(i);
+				UCTNode matchingChild = null;
+				
+				for (final UCTNode child : node.children)
+				{
+					if (child.moveFromParent.equals(playedMove))
+					{
+						matchingChild = child;
+						break;
+					}
+				}
+				
+				node = matchingChild;
+			}
 			
-			// create a copy of context
-			final Context context = new Context(current.context);
+			// Make sure we really ended up in the same game state
+			// (open-loop nodes don't store a state, so can't check this for them)
+			if (node != null && node.context != null && node.context.state().fullHash() != context.state().fullHash())
+				node = null;
+		}
+		
+		// The root keeps its own copy of the game state; the caller's context may
+		// be modified after we return our move (and our tree may be reused later)
+		if (node == null)
+			return new UCTNode(null, null, new Context(context), openLoop);
+		
+		// Detach from old parent, such that the rest of our old tree can be garbage collected
+		node.parent = null;
+		
+		// Root nodes always need a game state, also in open-loop mode
+		if (node.context == null)
+			node.context = new Context(context);
+		
+		return node;
+	}
+	
+	/**
+	 * Selects the move we wish to play using the "Robust Child" strategy
+	 * (meaning that we play the move leading to the child of the root node
+	 * with the highest visit count). If a child is a proven win for us, we
+	 * play it immediately, and we avoid children that are proven losses for
+	 * us (unless all of them are). If the root has no children at all (e.g.
+	 * because we ran out of time before completing any iteration), we play
+	 * a random legal move.
+	 * 
+	 * @param rootNode
+	 * @return
+	 */
+	public static Move finalMoveSelection(final UCTNode rootNode)
+	{
+		final int mover = rootNode.context.state().mover();
+		final int numChildren = rootNode.children.size();
+		boolean allProvenLosses = true;
+		
+		for (int i = 0; i < numChildren; ++i) 
+		{
+			final UCTNode child = rootNode.children.get(i);
 			
-			// apply the move
-			context.game().apply(context, move);
+			if (!UCTSolver.isProvenLoss(child, mover))
+				allProvenLosses = false;
 			
-			// create new node and return it
-			return new Node(current, move, context);
+			if (UCTSolver.isProvenWin(child, mover))
+				return child.moveFromParent;
 		}
 		
-		// use UCB1 equation to select from all children, with random tie-breaking
-		Node bestChild = null;
-        double bestValue = Double.NEGATIVE_INFINITY;
-        final double twoParentLog = 2.0 * Math.log(Math.max(1, current.visitCount));
+		UCTNode bestChild = null;
+        int bestVisitCount = Integer.MIN_VALUE;
         int numBestFound = 0;
         
-        final int numChildren = current.children.size();
-        final int mover = current.context.state().mover();
-
         for (int i = 0; i < numChildren; ++i) 
         {
-        	final Node child = current.children.get(i);
-        	final double exploit = child.scoreSums[mover] / child.visitCount;
-        	final double explore = Math.sqrt(twoParentLog / child.visitCount);
-        
-            final double ucb1Value = exploit + explore;
+        	final UCTNode child = rootNode.children.get(i);
+        	final int visitCount = child.visitCount;
+        	
+        	if (!allProvenLosses && UCTSolver.isProvenLoss(child, mover))
+        		continue;
             
-            if (ucb1Value > bestValue)
+            if (visitCount > bestVisitCount)
             {
-                bestValue = ucb1Value;
+                bestVisitCount = visitCount;
                 bestChild = child;
                 numBestFound = 1;
             }
             else if 
             (
-            	ucb1Value == bestValue && 
+            	visitCount == bestVisitCount && 
             	ThreadLocalRandom.current().nextInt() % ++numBestFound == 0
             )
             {
@@ -187,34 +833,57 @@ public class ExampleUCT extends AI
             }
         }
         
-        return bestChild;
+        if (bestChild == null)
+        	return randomLegalMove(rootNode);
+        
+        return bestChild.moveFromParent;
 	}
 	
 	/**
-	 * Selects the move we wish to play using the "Robust Child" strategy
-	 * (meaning that we play the move leading to the child of the root node
-	 * with the highest visit count).
+	 * Selects the move we wish to play using the "Robust Child" strategy,
+	 * for multiple independent trees built by root parallelisation. Visit
+	 * counts of children of all the root nodes are summed up per move. If
+	 * any tree has proven that a move wins for us, we play that move. If
+	 * no root has any children, we play a random legal move.
 	 * 
-	 * @param rootNode
+	 * @param rootNodes
 	 * @return
 	 */
-	public static Move finalMoveSelection(final Node rootNode)
+	public static Move finalMoveSelection(final UCTNode[] rootNodes)
 	{
-		Node bestChild = null;
+		final Map<Move, AtomicInteger> visitCountsPerMove = new HashMap<Move, AtomicInteger>();
+		
+		for (final UCTNode rootNode : rootNodes)
+		{
+			final int mover = rootNode.context.state().mover();
+			
+			for (final UCTNode child : rootNode.children)
+			{
+				if (UCTSolver.isProvenWin(child, mover))
+					return child.moveFromParent;
+				
+				AtomicInteger visitCount = visitCountsPerMove.get(child.moveFromParent);
+				if (visitCount == null)
+				{
+					visitCount = new AtomicInteger(0);
+					visitCountsPerMove.put(child.moveFromParent, visitCount);
+				}
+				visitCount.addAndGet(child.visitCount);
+			}
+		}
+		
+		Move bestMove = null;
         int bestVisitCount = Integer.MIN_VALUE;
         int numBestFound = 0;
         
-        final int numChildren = rootNode.children.size();
-
-        for (int i = 0; i < numChildren; ++i) 
+        for (final Map.Entry<Move, AtomicInteger> entry : visitCountsPerMove.entrySet())
         {
-        	final Node child = rootNode.children.get(i);
-        	final int visitCount = child.visitCount;
-            
-            if (visitCount > bestVisitCount)
+        	final int visitCount = entry.getValue().get();
+        	
+        	if (visitCount > bestVisitCount)
             {
                 bestVisitCount = visitCount;
-                bestChild = child;
+                bestMove = entry.getKey();
                 numBestFound = 1;
             }
             else if 
@@ -224,86 +893,352 @@ public class ExampleUCT extends AI
             )
             {
             	// this case implements random tie-breaking
-            	bestChild = child;
+            	bestMove = entry.getKey();
             }
         }
         
-        return bestChild.moveFromParent;
+        if (bestMove == null)
+        	return randomLegalMove(rootNodes[0]);
+        
+        return bestMove;
 	}
 	
-	@Override
-	public void initAI(final Game game, final int playerID)
+	/**
+	 * @param rootNode
+	 * @return A uniformly random legal move in the state of the given root node
+	 */
+	private static Move randomLegalMove(final UCTNode rootNode)
 	{
-		this.player = playerID;
+		final Context context = rootNode.context;
+		final FastArrayList<Move> legalMoves = 
+				(rootNode.legalMoves != null) ? rootNode.legalMoves : context.game().moves(context).moves();
+		
+		return legalMoves.get(ThreadLocalRandom.current().nextInt(legalMoves.size()));
 	}
 	
-	@Override
-	public boolean supportsGame(final Game game)
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Sets a budget for the memory used by our search tree(s). Whenever 
+	 * our (rough) estimate of the memory used exceeds this budget, we 
+	 * prune the least-recently visited subtrees (discarding their game 
+	 * states), and continue searching. This allows for long searches 
+	 * without running out of memory. Only the tree(s) themselves are counted
+	 * (not, for example, our transposition table). The sizes of nodes and 
+	 * game states are measured at the start of every search, and the memory
+	 * kept per legal move once per game. The budget applies to our estimate
+	 * of the tree's memory usage, which is reported in our search telemetry;
+	 * it is not a hard cap on the memory that the JVM actually uses.
+	 * 
+	 * @param numBytes Budget in bytes (0 for no limit)
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleUCT setMemoryBudget(final long numBytes)
 	{
-		if (game.isStochasticGame())
-			return false;
+		memoryManager.setMemoryBudget(numBytes);
+		return this;
+	}
+	
+	/**
+	 * Sets the number of threads to use for our search.
+	 * 
+	 * @param numThreads
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleUCT setNumThreads(final int numThreads)
+	{
+		threadPool.shutdown();
+		threadPool = new SearchThreadPool(numThreads);
 		
-		if (!game.isAlternatingMoveGame())
-			return false;
+		this.numThreads = numThreads;
+		return this;
+	}
+	
+	/**
+	 * Sets whether we use open-loop search, in which nodes only store the
+	 * move that led to them rather than a full copy of the game state. States
+	 * are re-derived in every iteration by copying the root state once, and 
+	 * applying moves along the path through the tree. This costs more time
+	 * per iteration, but results in much smaller trees, and also allows for 
+	 * stochastic games to be played.
+	 * 
+	 * @param openLoop
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleUCT setOpenLoop(final boolean openLoop)
+	{
+		// Old trees are not compatible with a different mode
+		if (this.openLoop != openLoop)
+		{
+			ponderer.stop();
+			lastRoots = null;
+		}
 		
-		return true;
+		this.openLoop = openLoop;
+		return this;
 	}
 	
-	//-------------------------------------------------------------------------
+	/**
+	 * Sets the size of the transposition table to use. Transposition tables
+	 * are not used in open-loop search.
+	 * 
+	 * @param numBits Table will have 2^numBits slots (0 for no transposition table)
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleUCT setTranspositionTableBits(final int numBits)
+	{
+		this.ttNumBits = numBits;
+		transpositionTable = null;
+		return this;
+	}
+	
+	/**
+	 * @return Our transposition table (null if we're not using one, or did not yet search)
+	 */
+	public UCTTranspositionTable transpositionTable()
+	{
+		return transpositionTable;
+	}
 	
 	/**
-	 * Inner class for nodes used by example UCT
+	 * @return Our time manager, which can be used to configure early termination, 
+	 * 	extensions and game-clock mode.
+	 */
+	public TimeManager timeManager()
+	{
+		return timeManager;
+	}
+	
+	/**
+	 * Sets whether we ponder, i.e. keep searching in a background thread 
+	 * after selectAction() returns, from the state reached by the move we
+	 * selected. Pondering stops as soon as selectAction() is called again, 
+	 * and the subtree for the moves played by our opponents is reused. We do
+	 * not ponder when using root parallelisation with multiple threads.
 	 * 
-	 * @author Dennis Soemers
+	 * @param ponder
+	 * @param maxIterations Maximum number of iterations per pondering session
+	 * @return This AI, such that calls can be chained
 	 */
-	private static class Node
+	public ExampleUCT setPondering(final boolean ponder, final int maxIterations)
 	{
-		/** Our parent node */
-		private final Node parent;
+		if (!ponder)
+			ponderer.stop();
 		
-		/** The move that led from parent to this node */
-		private final Move moveFromParent;
+		this.ponder = ponder;
+		this.maxPonderIterations = maxIterations;
+		return this;
+	}
+	
+	/**
+	 * Sets the policy we use to run playouts (uniformly random playouts
+	 * until the end of the game by default).
+	 * 
+	 * @param playoutPolicy
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleUCT setPlayoutPolicy(final PlayoutPolicy playoutPolicy)
+	{
+		this.playoutPolicy = playoutPolicy;
+		return this;
+	}
+	
+	/**
+	 * Sets a heuristic state evaluator to use for evaluating newly expanded
+	 * nodes, replacing playouts altogether (null to run playouts again). To
+	 * truncate playouts instead, use a DepthCappedPlayout policy with the 
+	 * same evaluator. In closed-loop search, nodes store the evaluator's 
+	 * features of their states, and the features of a new node are derived 
+	 * from those of its parent (see StateEvaluator.updateFeatures()).
+	 * 
+	 * @param leafEvaluator
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleUCT setLeafEvaluator(final StateEvaluator leafEvaluator)
+	{
+		this.leafEvaluator = leafEvaluator;
+		return this;
+	}
+	
+	/**
+	 * Enables progressive widening: a node with n visits may have at most
+	 * ceil(C * n^alpha) children, such that UCB1 already focuses on the
+	 * best few moves in nodes with very many legal moves, instead of having
+	 * to expand all of them first. Only used in closed-loop search.
+	 * 
+	 * @param coefficient C (0 to disable progressive widening)
+	 * @param exponent alpha (typically between 0.25 and 0.5)
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleUCT setProgressiveWidening(final double coefficient, final double exponent)
+	{
+		treePolicy.setProgressiveWidening(coefficient, exponent);
+		return this;
+	}
+	
+	/**
+	 * Sets an evaluator that decides which unexpanded move we expand first 
+	 * (the one with the highest value), instead of expanding them in a 
+	 * pseudorandom order. Mostly useful in combination with progressive widening. Only
+	 * used in closed-loop search.
+	 * 
+	 * @param expansionPrior (null to expand in random order again)
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleUCT setExpansionPrior(final MoveEvaluator expansionPrior)
+	{
+		treePolicy.setExpansionPrior(expansionPrior);
+		return this;
+	}
+	
+	/**
+	 * Sets whether we use MCTS-Solver: terminal nodes have proven outcomes,
+	 * which are propagated up the tree where possible. Nodes with proven 
+	 * outcomes are no longer explored, we immediately play a proven win, and
+	 * stop searching once the outcome of the root is proven. Only used in 
+	 * closed-loop search.
+	 * 
+	 * @param solver
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleUCT setSolver(final boolean solver)
+	{
+		this.solver = solver;
+		return this;
+	}
+	
+	/**
+	 * Enables Rapid Action Value Estimation (RAVE). Every node keeps 
+	 * all-moves-as-first (AMAF) statistics for its legal moves, updated with
+	 * all moves its mover played later in the same iteration (in the tree, 
+	 * and in the playout if we run a single playout per iteration). In 
+	 * UCB1, a child's average score is blended with the AMAF average for 
+	 * its move, with weight beta = sqrt(k / (3n + k)) for the AMAF average,
+	 * where n is the child's visit count. Only used in closed-loop search.
+	 * 
+	 * @param equivalence k, the number of visits at which both averages 
+	 * have roughly equal weight (0 to disable RAVE)
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleUCT setRave(final double equivalence)
+	{
+		treePolicy.setRave(equivalence);
+		return this;
+	}
+	
+	/**
+	 * Sets how many playouts we run from every newly expanded node. Their
+	 * utilities are averaged, and backpropagated in a single pass (counting
+	 * as a single visit). This amortises the cost of traversing the tree 
+	 * over multiple playouts.
+	 * 
+	 * @param numPlayouts Number of playouts per leaf
+	 * @param numPlayoutThreads Number of threads over which to spread the 
+	 * 	playouts of a single leaf (including the thread that traversed the tree)
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleUCT setPlayoutsPerLeaf(final int numPlayouts, final int numPlayoutThreads)
+	{
+		if (multiPlayoutRunner != null)
+			multiPlayoutRunner.shutdown();
 		
-		/** This objects contains the game state for this node (this is why we don't support stochastic games) */
-		private final Context context;
+		multiPlayoutRunner = (numPlayouts > 1) ? new MultiPlayoutRunner(numPlayouts, numPlayoutThreads) : null;
+		return this;
+	}
+	
+	/**
+	 * Sets whether we collect telemetry (iteration counts, depths, time spent
+	 * per phase, etc.) during our searches. On by default; phases are only
+	 * timed in a sample of the iterations, so this barely slows down the search.
+	 * 
+	 * @param collectTelemetry
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleUCT setCollectTelemetry(final boolean collectTelemetry)
+	{
+		this.collectTelemetry = collectTelemetry;
+		return this;
+	}
+	
+	/**
+	 * @return Telemetry of our most recent search (null if we did not collect any)
+	 */
+	public SearchTelemetry lastSearchTelemetry()
+	{
+		return lastTelemetry;
+	}
+	
+	/**
+	 * Sets how we distribute our search over multiple threads.
+	 * 
+	 * @param parallelMode
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleUCT setParallelMode(final ParallelMode parallelMode)
+	{
+		this.parallelMode = parallelMode;
+		return this;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	@Override
+	public void initAI(final Game game, final int playerID)
+	{
+		ponderer.stop();
+		this.player = playerID;
+		lastRoots = null;
+		lastTelemetry = null;
+		timeManager.resetClock();
 		
-		/** Visit count for this node */
-		private int visitCount = 0;
+		// Will be created again (for the correct number of players) when we start searching
+		transpositionTable = null;
+	}
+	
+	@Override
+	public void closeAI()
+	{
+		ponderer.stop();
+		lastRoots = null;
+		transpositionTable = null;
 		
-		/** For every player, sum of utilities / scores backpropagated through this node */
-		private final double[] scoreSums;
+		threadPool.shutdown();
 		
-		/** Child nodes */
-		private final List<Node> children = new ArrayList<Node>();
+		if (multiPlayoutRunner != null)
+			multiPlayoutRunner.shutdown();
+	}
+	
+	@Override
+	public String generateAnalysisReport()
+	{
+		if (lastTelemetry == null)
+			return null;
 		
-		/** List of moves for which we did not yet create a child node */
-		private final FastArrayList<Move> unexpandedMoves;
+		return String.format
+				(
+					"%d iterations (%.0f iterations/s, %.0f playouts/s), %d new nodes, max depth %d, avg depth %.1f",
+					Long.valueOf(lastTelemetry.numIterations()),
+					Double.valueOf(lastTelemetry.iterationsPerSecond()),
+					Double.valueOf(lastTelemetry.playoutsPerSecond()),
+					Long.valueOf(lastTelemetry.numNodesCreated()),
+					Integer.valueOf(lastTelemetry.maxDepth()),
+					Double.valueOf(lastTelemetry.averageDepth())
+				);
+	}
+	
+	@Override
+	public boolean supportsGame(final Game game)
+	{
+		// Stochastic games can only be handled by open-loop search
+		if (game.isStochasticGame() && !openLoop)
+			return false;
 		
-		/**
-		 * Constructor
-		 * 
-		 * @param parent
-		 * @param moveFromParent
-		 * @param context
-		 */
-		public Node(final Node parent, final Move moveFromParent, final Context context)
-		{
-			this.parent = parent;
-			this.moveFromParent = moveFromParent;
-			this.context = context;
-			final Game game = context.game();
-			scoreSums = new double[game.players().count() + 1];
-			
-			// For simplicity, we just take ALL legal moves. 
-			// This means we do not support simultaneous-move games.
-			unexpandedMoves = new FastArrayList<Move>(game.moves(context).moves());
-			
-			if (parent != null)
-				parent.children.add(this);
-		}
+		if (!game.isAlternatingMoveGame())
+			return false;
 		
+		return true;
 	}
 	
 	//-------------------------------------------------------------------------
-
+	
 }
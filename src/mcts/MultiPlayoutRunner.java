@@ -0,0 +1,139 @@
+package mcts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import mcts.playout.PlayoutPolicy;
+import other.context.Context;
+
+/**
+ * Runs a fixed number of playouts from the same state, possibly spread
+ * over multiple threads, and averages their utilities. Used by ExampleUCT
+ * to amortise the cost of traversing the tree over multiple playouts per
+ * newly expanded node.
+ * 
+ * @author Dennis Soemers
+ */
+final class MultiPlayoutRunner
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Number of playouts we run per state */
+	private final int numPlayouts;
+	
+	/** Thread pool running all but one of the playouts (null if we run all playouts on the calling thread) */
+	private final SearchThreadPool threadPool;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param numPlayouts Number of playouts per state
+	 * @param numThreads Number of threads over which to spread the playouts
+	 * 	(including the calling thread)
+	 */
+	MultiPlayoutRunner(final int numPlayouts, final int numThreads)
+	{
+		this.numPlayouts = numPlayouts;
+		this.threadPool = (numThreads > 1) ? new SearchThreadPool(numThreads - 1) : null;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Runs our playouts from the given state (which is not modified), and
+	 * returns the average utilities. Every playout runs on its own copy of
+	 * the state. If any of the playouts fails, we rethrow its exception.
+	 * 
+	 * @param playoutPolicy
+	 * @param context
+	 * @param numPlayers
+	 * @return Average utilities for all players (indexed from 1)
+	 */
+	double[] runPlayouts(final PlayoutPolicy playoutPolicy, final Context context, final int numPlayers)
+	{
+		final double[] sumUtilities = new double[numPlayers + 1];
+		int numCompleted = 0;
+		
+		List<Future<double[]>> futures = null;
+		if (threadPool != null)
+		{
+			// All but one playout are submitted to our pool, we run the last one ourselves
+			futures = new ArrayList<Future<double[]>>(numPlayouts - 1);
+			for (int i = 1; i < numPlayouts; ++i)
+			{
+				futures.add(threadPool.submit(() -> {return playoutPolicy.runPlayout(new Context(context));}));
+			}
+		}
+		
+		for (int i = (futures == null) ? 0 : numPlayouts - 1; i < numPlayouts; ++i)
+		{
+			final double[] utilities = playoutPolicy.runPlayout(new Context(context));
+			for (int p = 1; p <= numPlayers; ++p)
+			{
+				sumUtilities[p] += utilities[p];
+			}
+			++numCompleted;
+		}
+		
+		if (futures != null)
+		{
+			try
+			{
+				for (final Future<double[]> future : futures)
+				{
+					final double[] utilities = future.get();
+					for (int p = 1; p <= numPlayers; ++p)
+					{
+						sumUtilities[p] += utilities[p];
+					}
+					++numCompleted;
+				}
+			}
+			catch (final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			catch (final ExecutionException e)
+			{
+				// Don't backpropagate the average of only the playouts that survived
+				for (final Future<double[]> future : futures)
+				{
+					future.cancel(true);
+				}
+				throw SearchThreadPool.taskFailure(e);
+			}
+		}
+		
+		for (int p = 1; p <= numPlayers; ++p)
+		{
+			sumUtilities[p] /= numCompleted;
+		}
+		
+		return sumUtilities;
+	}
+	
+	/**
+	 * @return Number of playouts we run per state
+	 */
+	int numPlayouts()
+	{
+		return numPlayouts;
+	}
+	
+	/**
+	 * Stops the threads running our playouts (if any)
+	 */
+	void shutdown()
+	{
+		if (threadPool != null)
+			threadPool.shutdown();
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -0,0 +1,69 @@
+package mcts;
+
+/**
+ * Runs a search in a background (daemon) thread while our opponents are
+ * thinking, until told to stop. The search itself should regularly check
+ * stopRequested(), and return once it is true.
+ * 
+ * @author Dennis Soemers
+ */
+final class Ponderer
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Background thread that is pondering (null if we're not pondering) */
+	private Thread thread = null;
+	
+	/** Set to true to tell our thread to stop */
+	private volatile boolean stopRequested = false;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Starts running the given search in a background thread. Must not be
+	 * called while we are already pondering.
+	 * 
+	 * @param search
+	 */
+	void start(final Runnable search)
+	{
+		stopRequested = false;
+		thread = new Thread(search);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Stops our background thread (if we have one), and waits for it to finish.
+	 */
+	void stop()
+	{
+		if (thread != null)
+		{
+			stopRequested = true;
+			
+			try
+			{
+				thread.join();
+			}
+			catch (final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			
+			thread = null;
+		}
+	}
+	
+	/**
+	 * @return True if the search in our background thread should stop
+	 */
+	boolean stopRequested()
+	{
+		return stopRequested;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
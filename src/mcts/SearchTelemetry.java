@@ -0,0 +1,447 @@
+package mcts;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import other.move.Move;
+
+/**
+ * Statistics collected during a single call to selectAction() of an MCTS
+ * agent: number of iterations, number of nodes created, depths reached in
+ * the tree, time spent in every phase of MCTS, and the distribution of
+ * visits over the root's children.
+ * 
+ * For agents that generate legal moves lazily, we also count the number 
+ * of nodes for which legal moves were actually generated; the remaining 
+ * created nodes were leaves that were never selected from again.
+ * 
+ * For agents that limit the memory used by their trees, we record how 
+ * often (and how much) they pruned, and an estimate of the memory used by
+ * their trees at the end of the search.
+ * 
+ * Every search thread records its iterations in its own object (so no
+ * synchronisation is required), and these are merged once the search is
+ * over. Times spent in phases are therefore summed over all threads, and
+ * may add up to more than the duration of a multi-threaded search.
+ * 
+ * Counters (iterations, nodes, depths, root visits) are updated in every
+ * iteration, which costs no more than a few additions. Timing the phases
+ * of MCTS costs several calls to System.nanoTime() per iteration, so
+ * we only time a sample of the iterations (one in every SAMPLE_INTERVAL
+ * per thread), and scale the sampled times up 
+ * to estimates for all iterations. This makes the telemetry cheap enough
+ * to always leave on.
+ * 
+ * @author Dennis Soemers
+ */
+public class SearchTelemetry
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Every search thread times one in every this many iterations. Must be a power of 2. */
+	public static final int SAMPLE_INTERVAL = 16;
+	
+	//-------------------------------------------------------------------------
+	
+	/** Number of completed iterations */
+	private long numIterations = 0L;
+	
+	/** Number of playouts run */
+	private long numPlayouts = 0L;
+	
+	/** Number of nodes created */
+	private long numNodesCreated = 0L;
+	
+	/** Maximum depth (number of edges from root) of a node reached by selection */
+	private int maxDepth = 0;
+	
+	/** Sum of depths of nodes reached by selection */
+	private long sumDepths = 0L;
+	
+	/** Number of iterations for which we measured the time spent in every phase */
+	private long numTimedIterations = 0L;
+	
+	/** Nanoseconds spent selecting (already existing) nodes (in timed iterations only) */
+	private long selectionNanos = 0L;
+	
+	/** Nanoseconds spent creating new nodes (in timed iterations only) */
+	private long expansionNanos = 0L;
+	
+	/** Nanoseconds spent in playouts (in timed iterations only) */
+	private long playoutNanos = 0L;
+	
+	/** Nanoseconds spent backpropagating (in timed iterations only) */
+	private long backpropNanos = 0L;
+	
+	/** Number of nodes for which we generated legal moves */
+	private long numMoveGenerations = 0L;
+	
+	/** Nanoseconds spent generating legal moves for nodes (in timed iterations only, already included in selection / expansion) */
+	private long moveGenerationNanos = 0L;
+	
+	/** Number of times we pruned the tree to stay within a memory budget */
+	private long numPrunings = 0L;
+	
+	/** Estimated number of bytes freed by pruning */
+	private long prunedBytes = 0L;
+	
+	/** Estimated memory used by the tree(s) at the end of the search, in bytes (0 if not tracked) */
+	private long treeBytes = 0L;
+	
+	/** Wall-clock duration of the complete search, in nanoseconds */
+	private long durationNanos = 0L;
+	
+	/** Visit counts of the children of the root node after the search, per move */
+	private final Map<Move, Integer> rootVisits = new LinkedHashMap<Move, Integer>();
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Records statistics of a single completed MCTS iteration. Times are
+	 * ignored for iterations that were not timed.
+	 * 
+	 * @param depth Depth of the node at which selection ended
+	 * @param expanded Whether the last step of selection created a new node
+	 * @param playouts Number of playouts run
+	 * @param timed Whether we measured the time spent in every phase of this iteration
+	 * @param selection Nanoseconds spent selecting existing nodes
+	 * @param expansion Nanoseconds spent creating new nodes
+	 * @param playout Nanoseconds spent in the playout
+	 * @param backprop Nanoseconds spent backpropagating
+	 */
+	public void recordIteration
+	(
+		final int depth,
+		final boolean expanded,
+		final int playouts,
+		final boolean timed,
+		final long selection,
+		final long expansion,
+		final long playout,
+		final long backprop
+	)
+	{
+		++numIterations;
+		numPlayouts += playouts;
+		if (expanded)
+			++numNodesCreated;
+		
+		maxDepth = Math.max(maxDepth, depth);
+		sumDepths += depth;
+		
+		if (timed)
+		{
+			++numTimedIterations;
+			selectionNanos += selection;
+			expansionNanos += expansion;
+			playoutNanos += playout;
+			backpropNanos += backprop;
+		}
+	}
+	
+	/**
+	 * Records that we generated legal moves for a node
+	 * 
+	 * @param nanos Nanoseconds spent generating the moves (0 if the iteration was not timed)
+	 */
+	public void recordMoveGeneration(final long nanos)
+	{
+		++numMoveGenerations;
+		moveGenerationNanos += nanos;
+	}
+	
+	/**
+	 * Records that we pruned the tree
+	 * 
+	 * @param bytesFreed Estimated number of bytes freed
+	 */
+	public void recordPruning(final long bytesFreed)
+	{
+		++numPrunings;
+		prunedBytes += bytesFreed;
+	}
+	
+	/**
+	 * Adds the visit count of a child of a root node. Visit counts for the
+	 * same move (in different trees) are summed up.
+	 * 
+	 * @param move
+	 * @param visitCount
+	 */
+	public void addRootVisits(final Move move, final int visitCount)
+	{
+		rootVisits.merge(move, Integer.valueOf(visitCount), Integer::sum);
+	}
+	
+	/**
+	 * Adds all iteration statistics recorded by the other object to this one
+	 * 
+	 * @param other
+	 */
+	public void merge(final SearchTelemetry other)
+	{
+		numIterations += other.numIterations;
+		numPlayouts += other.numPlayouts;
+		numNodesCreated += other.numNodesCreated;
+		maxDepth = Math.max(maxDepth, other.maxDepth);
+		sumDepths += other.sumDepths;
+		numTimedIterations += other.numTimedIterations;
+		selectionNanos += other.selectionNanos;
+		expansionNanos += other.expansionNanos;
+		playoutNanos += other.playoutNanos;
+		backpropNanos += other.backpropNanos;
+		numMoveGenerations += other.numMoveGenerations;
+		moveGenerationNanos += other.moveGenerationNanos;
+		numPrunings += other.numPrunings;
+		prunedBytes += other.prunedBytes;
+	}
+	
+	/**
+	 * Sets the wall-clock duration of the complete search
+	 * 
+	 * @param nanos
+	 */
+	public void setDurationNanos(final long nanos)
+	{
+		durationNanos = nanos;
+	}
+	
+	/**
+	 * Sets the estimated memory used by the tree(s) at the end of the search
+	 * 
+	 * @param bytes
+	 */
+	public void setTreeBytes(final long bytes)
+	{
+		treeBytes = bytes;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @return Number of completed iterations
+	 */
+	public long numIterations()
+	{
+		return numIterations;
+	}
+	
+	/**
+	 * @return Number of iterations per second of wall-clock time
+	 */
+	public double iterationsPerSecond()
+	{
+		return (durationNanos == 0L) ? 0.0 : numIterations / (durationNanos / 1.0E9);
+	}
+	
+	/**
+	 * @return Number of playouts run
+	 */
+	public long numPlayouts()
+	{
+		return numPlayouts;
+	}
+	
+	/**
+	 * @return Number of playouts per second of wall-clock time
+	 */
+	public double playoutsPerSecond()
+	{
+		return (durationNanos == 0L) ? 0.0 : numPlayouts / (durationNanos / 1.0E9);
+	}
+	
+	/**
+	 * @return Number of nodes created
+	 */
+	public long numNodesCreated()
+	{
+		return numNodesCreated;
+	}
+	
+	/**
+	 * @return Maximum depth of a node reached by selection
+	 */
+	public int maxDepth()
+	{
+		return maxDepth;
+	}
+	
+	/**
+	 * @return Average depth of nodes reached by selection
+	 */
+	public double averageDepth()
+	{
+		return (numIterations == 0L) ? 0.0 : (double) sumDepths / numIterations;
+	}
+	
+	/**
+	 * @return Estimated nanoseconds spent selecting existing nodes (scaled up from timed iterations)
+	 */
+	public long selectionNanos()
+	{
+		return scaledNanos(selectionNanos);
+	}
+	
+	/**
+	 * @return Estimated nanoseconds spent creating new nodes (scaled up from timed iterations)
+	 */
+	public long expansionNanos()
+	{
+		return scaledNanos(expansionNanos);
+	}
+	
+	/**
+	 * @return Estimated nanoseconds spent in playouts (scaled up from timed iterations)
+	 */
+	public long playoutNanos()
+	{
+		return scaledNanos(playoutNanos);
+	}
+	
+	/**
+	 * @return Estimated nanoseconds spent backpropagating (scaled up from timed iterations)
+	 */
+	public long backpropNanos()
+	{
+		return scaledNanos(backpropNanos);
+	}
+	
+	/**
+	 * @return Number of iterations for which we measured the time spent in every phase
+	 */
+	public long numTimedIterations()
+	{
+		return numTimedIterations;
+	}
+	
+	/**
+	 * @return Number of nodes for which we generated legal moves
+	 */
+	public long numMoveGenerations()
+	{
+		return numMoveGenerations;
+	}
+	
+	/**
+	 * @return Estimated nanoseconds spent generating legal moves for nodes (scaled up from timed iterations)
+	 */
+	public long moveGenerationNanos()
+	{
+		return scaledNanos(moveGenerationNanos);
+	}
+	
+	/**
+	 * @return Number of times we pruned the tree to stay within a memory budget
+	 */
+	public long numPrunings()
+	{
+		return numPrunings;
+	}
+	
+	/**
+	 * @return Estimated number of bytes freed by pruning
+	 */
+	public long prunedBytes()
+	{
+		return prunedBytes;
+	}
+	
+	/**
+	 * @return Estimated memory used by the tree(s) at the end of the search, in bytes
+	 * 	(0 if the search did not track memory usage, i.e. had no memory budget).
+	 * 	This is an estimate based on measured sizes of nodes, game states and
+	 * 	legal moves, not a measurement of the heap.
+	 */
+	public long treeBytes()
+	{
+		return treeBytes;
+	}
+	
+	/**
+	 * @return Wall-clock duration of the search, in nanoseconds
+	 */
+	public long durationNanos()
+	{
+		return durationNanos;
+	}
+	
+	/**
+	 * @return Visit counts of children of the root node, per move
+	 */
+	public Map<Move, Integer> rootVisits()
+	{
+		return rootVisits;
+	}
+	
+	/**
+	 * @param sampledNanos Nanoseconds measured in timed iterations
+	 * @return Estimate of the nanoseconds spent in all iterations
+	 */
+	private long scaledNanos(final long sampledNanos)
+	{
+		if (numTimedIterations == 0L)
+			return 0L;
+		
+		return (long) (sampledNanos * ((double) numIterations / numTimedIterations));
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @return All statistics as a single-line JSON object
+	 */
+	public String toJson()
+	{
+		final StringBuilder sb = new StringBuilder();
+		
+		sb.append("{\"iterations\":").append(numIterations);
+		sb.append(",\"durationMs\":").append(durationNanos / 1000000L);
+		sb.append(",\"iterationsPerSecond\":").append(String.format(Locale.ROOT, "%.1f", Double.valueOf(iterationsPerSecond())));
+		sb.append(",\"playouts\":").append(numPlayouts);
+		sb.append(",\"playoutsPerSecond\":").append(String.format(Locale.ROOT, "%.1f", Double.valueOf(playoutsPerSecond())));
+		sb.append(",\"nodesCreated\":").append(numNodesCreated);
+		sb.append(",\"maxDepth\":").append(maxDepth);
+		sb.append(",\"avgDepth\":").append(String.format(Locale.ROOT, "%.2f", Double.valueOf(averageDepth())));
+		sb.append(",\"timedIterations\":").append(numTimedIterations);
+		sb.append(",\"selectionMs\":").append(selectionNanos() / 1000000L);
+		sb.append(",\"expansionMs\":").append(expansionNanos() / 1000000L);
+		sb.append(",\"playoutMs\":").append(playoutNanos() / 1000000L);
+		sb.append(",\"backpropMs\":").append(backpropNanos() / 1000000L);
+		sb.append(",\"moveGenerations\":").append(numMoveGenerations);
+		sb.append(",\"moveGenerationMs\":").append(moveGenerationNanos() / 1000000L);
+		sb.append(",\"prunings\":").append(numPrunings);
+		sb.append(",\"prunedBytes\":").append(prunedBytes);
+		sb.append(",\"estimatedTreeBytes\":").append(treeBytes);
+		sb.append(",\"rootVisits\":[");
+		
+		boolean first = true;
+		for (final Map.Entry<Move, Integer> entry : rootVisits.entrySet())
+		{
+			if (!first)
+				sb.append(",");
+			first = false;
+			
+			sb.append("{\"move\":\"");
+			
+			final String move = String.valueOf(entry.getKey());
+			for (int i = 0; i < move.length(); ++i)
+			{
+				final char c = move.charAt(i);
+				if (c == '"' || c == '\\')
+					sb.append('\\').append(c);
+				else if (c >= ' ')
+					sb.append(c);
+			}
+			
+			sb.append("\",\"visits\":").append(entry.getValue()).append("}");
+		}
+		
+		sb.append("]}");
+		return sb.toString();
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
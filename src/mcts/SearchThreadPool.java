@@ -0,0 +1,147 @@
+package mcts;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A fixed number of (daemon) threads on which our MCTS agents run tasks
+ * in parallel, such as the iterations of a multi-threaded search, or the
+ * playouts from a single leaf. Threads are only created once the pool is
+ * first used, by whichever thread first needs them. If a task fails, the
+ * thread waiting for it rethrows the task's exception.
+ * 
+ * @author Dennis Soemers
+ */
+final class SearchThreadPool
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Number of threads in our pool */
+	private final int numThreads;
+	
+	/** Executor running our tasks (lazily created, null if not yet used or shut down) */
+	private volatile ExecutorService executor = null;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param numThreads
+	 */
+	SearchThreadPool(final int numThreads)
+	{
+		this.numThreads = numThreads;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Runs the given tasks on our threads, and waits for all of them to
+	 * complete. If any of the tasks fails, we rethrow its exception.
+	 * 
+	 * @param tasks
+	 */
+	void invokeAll(final List<Callable<Void>> tasks)
+	{
+		try
+		{
+			for (final Future<Void> future : executor().invokeAll(tasks))
+			{
+				future.get();
+			}
+		}
+		catch (final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (final ExecutionException e)
+		{
+			throw taskFailure(e);
+		}
+	}
+	
+	/**
+	 * Submits the given task to run on one of our threads.
+	 * 
+	 * @param task
+	 * @return Future for the result of the task
+	 */
+	<T> Future<T> submit(final Callable<T> task)
+	{
+		return executor().submit(task);
+	}
+	
+	/**
+	 * Stops all our threads. The pool may still be used afterwards, in
+	 * which case new threads are created.
+	 */
+	synchronized void shutdown()
+	{
+		if (executor != null)
+		{
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param e Exception thrown by Future.get() for a task that failed
+	 * @return The exception thrown by the task itself (wrapped if it is checked)
+	 */
+	static RuntimeException taskFailure(final ExecutionException e)
+	{
+		final Throwable cause = e.getCause();
+		
+		if (cause instanceof Error)
+			throw (Error) cause;
+		
+		if (cause instanceof RuntimeException)
+			return (RuntimeException) cause;
+		
+		return new RuntimeException(cause);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @return Our executor, created if we do not yet have one
+	 */
+	private ExecutorService executor()
+	{
+		ExecutorService exec = executor;
+		if (exec == null)
+		{
+			synchronized (this)
+			{
+				exec = executor;
+				if (exec == null)
+				{
+					exec = Executors.newFixedThreadPool
+							(
+								numThreads,
+								(final Runnable r) ->
+								{
+									final Thread thread = new Thread(r);
+									thread.setDaemon(true);
+									return thread;
+								}
+							);
+					executor = exec;
+				}
+			}
+		}
+		
+		return exec;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
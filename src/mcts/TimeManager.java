@@ -0,0 +1,311 @@
+package mcts;
+
+/**
+ * Time management for our example MCTS agents. Decides, while a search is
+ * running, when that search should stop:
+ * 	- Once the time budget for the current move has been used up. The clock
+ * 	is only checked once every checkInterval() iterations (per thread).
+ * 	- Earlier than that, if the most-visited child of the root cannot be
+ * 	overtaken by the runner-up anymore, even if all iterations that we still
+ * 	expect to run within the budget were to go to the runner-up.
+ * 	- Later than that (game-clock mode only), if the top two children of
+ * 	the root have very similar visit counts when the budget runs out. We
+ * 	then extend the search (at most once per move), in the hope of resolving
+ * 	which of the two moves is best.
+ * 
+ * By default, the budget for a move is simply the maxSeconds argument of
+ * selectAction(). In game-clock mode, we instead have a total amount of time
+ * for the complete game, and allocate a fraction of the remaining time to
+ * every move (assuming that we still need to play a fixed number of moves),
+ * still never exceeding maxSeconds if that is specified. Time saved by
+ * terminating early on easy moves is therefore available for later moves.
+ * 
+ * Checking the clock is cheap, but not free, so we want to do it as rarely
+ * as possible without overshooting our deadline. Until we know how long
+ * iterations take, search threads check the clock in every iteration. 
+ * After that, we adapt the interval, such that the iterations between two
+ * checks never take more than a small slice of the time remaining until
+ * our deadline (and never more than MAX_CHECK_INTERVAL iterations). We 
+ * never run iterations past our deadline, even if that means that a search
+ * stops before completing any iterations.
+ * 
+ * Searches that are only limited by a number of iterations (not by time)
+ * are never terminated early, such that experiments with fixed numbers of
+ * iterations remain comparable.
+ * 
+ * A single search may be run by multiple threads which all consult the
+ * same time manager, so all methods used during a search are synchronised.
+ * 
+ * @author Dennis Soemers
+ */
+public class TimeManager
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Maximum number of iterations (per thread) between successive checks of the clock */
+	public static final int MAX_CHECK_INTERVAL = 16;
+	
+	/** Minimum number of iterations before we trust our estimate of the number of iterations per second */
+	private static final int MIN_ITERATIONS_FOR_ESTIMATE = 4 * MAX_CHECK_INTERVAL;
+	
+	/** The iterations between two checks of the clock should take at most this fraction of the time until our deadline */
+	private static final double CHECK_SLICE = 0.05;
+	
+	/** In game-clock mode, we try to always keep this many seconds on our clock */
+	private static final double SAFETY_MARGIN_SECONDS = 0.1;
+	
+	/** In game-clock mode, the budget for a move is never smaller than this (even if that eats into our safety margin) */
+	private static final double MIN_BUDGET_SECONDS = 0.01;
+	
+	/** In game-clock mode, a single move (including extensions) never uses more than this fraction of our remaining time */
+	private static final double MAX_CLOCK_FRACTION = 0.25;
+	
+	//-------------------------------------------------------------------------
+	
+	/** Whether we terminate searches early if the best move can no longer change */
+	protected boolean earlyTermination = true;
+	
+	/** In game-clock mode, we extend the search by at most this fraction of the budget for a move (0 to disable) */
+	protected double extensionFactor = 0.5;
+	
+	/** The top two children are considered close if the second has at least this fraction of the best one's visits */
+	protected double closeRatio = 0.9;
+	
+	/** Total thinking time for the complete game in seconds (game-clock mode only, <= 0 if not used) */
+	protected double gameClockSeconds = 0.0;
+	
+	/** In game-clock mode, the number of moves we assume that we still need to play */
+	protected int movesToGo = 30;
+	
+	/** Remaining thinking time on our game clock, in seconds */
+	private double remainingClockSeconds = 0.0;
+	
+	//-------------------------------------------------------------------------
+	
+	/** Time at which the current search started (System.nanoTime()) */
+	private long startNanos = 0L;
+	
+	/** Time at which the current search should stop (Long.MAX_VALUE if no time limit) */
+	private long deadlineNanos = Long.MAX_VALUE;
+	
+	/** Time after which we can no longer extend the current search */
+	private long hardLimitNanos = Long.MAX_VALUE;
+	
+	/** Budget of the current search in nanoseconds (before any extension) */
+	private long budgetNanos = 0L;
+	
+	/** Whether we already extended the current search */
+	private boolean extended = false;
+	
+	/** Set to true once we have decided that the current search should stop */
+	private boolean stop = false;
+	
+	/** Number of threads running the current search */
+	private int numThreads = 1;
+	
+	/** Current number of iterations (per thread) between successive checks of the clock */
+	private volatile int checkInterval = 1;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Must be called at the start of every search run by a single thread.
+	 * 
+	 * @param maxSeconds Maximum number of seconds for this move (<= 0 if unlimited)
+	 */
+	public void startSearch(final double maxSeconds)
+	{
+		startSearch(maxSeconds, 1);
+	}
+	
+	/**
+	 * Must be called at the start of every search.
+	 * 
+	 * @param maxSeconds Maximum number of seconds for this move (<= 0 if unlimited)
+	 * @param searchThreads Number of threads that will run the search
+	 */
+	public synchronized void startSearch(final double maxSeconds, final int searchThreads)
+	{
+		startNanos = System.nanoTime();
+		extended = false;
+		stop = false;
+		numThreads = Math.max(1, searchThreads);
+		
+		double budgetSeconds = (maxSeconds > 0.0) ? maxSeconds : Double.POSITIVE_INFINITY;
+		double hardLimitSeconds = budgetSeconds;
+		
+		if (gameClockSeconds > 0.0)
+		{
+			final double available = Math.max(0.0, remainingClockSeconds - SAFETY_MARGIN_SECONDS);
+			budgetSeconds = Math.min(budgetSeconds, Math.max(MIN_BUDGET_SECONDS, available / Math.max(1, movesToGo)));
+			hardLimitSeconds = Math.min(hardLimitSeconds, Math.max(budgetSeconds, available * MAX_CLOCK_FRACTION));
+		}
+		
+		if (budgetSeconds == Double.POSITIVE_INFINITY)
+		{
+			budgetNanos = Long.MAX_VALUE;
+			deadlineNanos = Long.MAX_VALUE;
+			hardLimitNanos = Long.MAX_VALUE;
+			
+			// Without a deadline, there is nothing to overshoot
+			checkInterval = MAX_CHECK_INTERVAL;
+		}
+		else
+		{
+			budgetNanos = (long) (budgetSeconds * 1.0E9);
+			deadlineNanos = startNanos + budgetNanos;
+			hardLimitNanos = startNanos + (long) (hardLimitSeconds * 1.0E9);
+			
+			// We don't know how long iterations take yet
+			checkInterval = 1;
+		}
+	}
+	
+	/**
+	 * Decides whether the current search should stop. Should be called by
+	 * every search thread once every checkInterval() iterations.
+	 * 
+	 * @param numIterations Number of iterations performed so far (by all threads)
+	 * @param bestVisits Highest visit count among children of the root
+	 * @param secondBestVisits Second-highest visit count among children of the root
+	 * @return True if the search should stop
+	 */
+	public synchronized boolean shouldStop(final int numIterations, final int bestVisits, final int secondBestVisits)
+	{
+		if (stop)
+			return true;
+		
+		if (deadlineNanos == Long.MAX_VALUE)
+			return false;
+		
+		final long now = System.nanoTime();
+		
+		if (now >= deadlineNanos)
+		{
+			if
+			(
+				!extended &&
+				gameClockSeconds > 0.0 &&
+				extensionFactor > 0.0 &&
+				bestVisits > 0 &&
+				secondBestVisits >= closeRatio * bestVisits
+			)
+			{
+				// Top two moves are close, spend a bit more time if our clock allows it
+				extended = true;
+				deadlineNanos = Math.min(hardLimitNanos, now + (long) (extensionFactor * budgetNanos));
+				
+				if (now < deadlineNanos)
+					return false;
+			}
+			
+			stop = true;
+			return true;
+		}
+		
+		if (numIterations >= MIN_ITERATIONS_FOR_ESTIMATE)
+		{
+			// Estimate how many more iterations we can run in the remaining time
+			final double iterationsPerNano = (double) numIterations / Math.max(1L, now - startNanos);
+			final double remainingIterations = iterationsPerNano * (deadlineNanos - now);
+			
+			if (earlyTermination && bestVisits - secondBestVisits > remainingIterations)
+			{
+				stop = true;
+				return true;
+			}
+			
+			// Every thread runs its share of the remaining iterations; only a small slice of those may 
+			// be run between two checks
+			final double sliceIterations = CHECK_SLICE * remainingIterations / numThreads;
+			checkInterval = (int) Math.max(1.0, Math.min(MAX_CHECK_INTERVAL, sliceIterations));
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * @return Number of iterations every search thread should run between
+	 * 	successive calls to shouldStop()
+	 */
+	public int checkInterval()
+	{
+		return checkInterval;
+	}
+	
+	/**
+	 * Must be called at the end of every search. In game-clock mode, this
+	 * subtracts the time we used from our clock.
+	 */
+	public synchronized void endSearch()
+	{
+		if (gameClockSeconds > 0.0)
+			remainingClockSeconds -= (System.nanoTime() - startNanos) / 1.0E9;
+	}
+	
+	/**
+	 * Resets our game clock (should be called at the start of every game)
+	 */
+	public synchronized void resetClock()
+	{
+		remainingClockSeconds = gameClockSeconds;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Sets whether we terminate searches early once the best move can no
+	 * longer change.
+	 * 
+	 * @param earlyTermination
+	 * @return This time manager, such that calls can be chained
+	 */
+	public TimeManager setEarlyTermination(final boolean earlyTermination)
+	{
+		this.earlyTermination = earlyTermination;
+		return this;
+	}
+	
+	/**
+	 * Sets by how much we may extend the search for a move (in game-clock
+	 * mode) if the top two moves are close.
+	 * 
+	 * @param extensionFactor Maximum extension as a fraction of the budget for the move (0 to disable)
+	 * @param closeRatio Moves are close if the second has at least this fraction of the best one's visits
+	 * @return This time manager, such that calls can be chained
+	 */
+	public TimeManager setExtension(final double extensionFactor, final double closeRatio)
+	{
+		this.extensionFactor = extensionFactor;
+		this.closeRatio = closeRatio;
+		return this;
+	}
+	
+	/**
+	 * Switches to game-clock mode (or back, if the given total is <= 0), and
+	 * resets our clock.
+	 * 
+	 * @param totalSeconds Total thinking time for a complete game
+	 * @param movesToGo Number of moves we assume that we still need to play, in any position
+	 * @return This time manager, such that calls can be chained
+	 */
+	public synchronized TimeManager setGameClock(final double totalSeconds, final int movesToGo)
+	{
+		this.gameClockSeconds = totalSeconds;
+		this.movesToGo = movesToGo;
+		resetClock();
+		return this;
+	}
+	
+	/**
+	 * @return Remaining time on our game clock, in seconds (only meaningful in game-clock mode)
+	 */
+	public synchronized double remainingClockSeconds()
+	{
+		return remainingClockSeconds;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -0,0 +1,92 @@
+package mcts;
+
+/**
+ * Precomputed lookup tables for the terms of the UCB1 equation, such that
+ * selection in our example MCTS agents does not need to call Math.log()
+ * and Math.sqrt() (or divide) for every child in every step. Tables are
+ * used for visit counts below TABLE_SIZE; larger visit counts fall back
+ * to direct computation.
+ * 
+ * All methods treat a visit count of 0 as a visit count of 1.
+ * 
+ * @author Dennis Soemers
+ */
+public final class UCBTables
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Visit counts strictly below this are looked up in tables */
+	public static final int TABLE_SIZE = 1 << 14;
+	
+	/** For every visit count n, sqrt(2 * ln(n)) */
+	private static final double[] SQRT_TWO_LOG = new double[TABLE_SIZE];
+	
+	/** For every visit count n, 1 / sqrt(n) */
+	private static final double[] INV_SQRT = new double[TABLE_SIZE];
+	
+	/** For every visit count n, 1 / n */
+	private static final double[] RECIPROCAL = new double[TABLE_SIZE];
+	
+	static
+	{
+		for (int n = 0; n < TABLE_SIZE; ++n)
+		{
+			final int m = Math.max(1, n);
+			SQRT_TWO_LOG[n] = Math.sqrt(2.0 * Math.log(m));
+			INV_SQRT[n] = 1.0 / Math.sqrt(m);
+			RECIPROCAL[n] = 1.0 / m;
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 */
+	private UCBTables()
+	{
+		// do not instantiate
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param n Visit count (of parent node)
+	 * @return sqrt(2 * ln(n))
+	 */
+	public static double sqrtTwoLog(final int n)
+	{
+		if (n < TABLE_SIZE)
+			return SQRT_TWO_LOG[Math.max(0, n)];
+		
+		return Math.sqrt(2.0 * Math.log(n));
+	}
+	
+	/**
+	 * @param n Visit count
+	 * @return 1 / sqrt(n)
+	 */
+	public static double invSqrt(final int n)
+	{
+		if (n < TABLE_SIZE)
+			return INV_SQRT[Math.max(0, n)];
+		
+		return 1.0 / Math.sqrt(n);
+	}
+	
+	/**
+	 * @param n Visit count
+	 * @return 1 / n
+	 */
+	public static double reciprocal(final int n)
+	{
+		if (n < TABLE_SIZE)
+			return RECIPROCAL[Math.max(0, n)];
+		
+		return 1.0 / n;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -0,0 +1,461 @@
+package mcts;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import game.Game;
+import main.collections.FastArrayList;
+import other.context.Context;
+import other.move.Move;
+
+/**
+ * Keeps the estimated memory used by ExampleUCT's search tree(s) within a
+ * budget. We keep a running (rough) estimate of the memory used by the 
+ * tree(s), based on the sizes of a node, a game state and a legal move, 
+ * which are measured at the start of every search. Once the estimate 
+ * exceeds our budget, the least-recently visited subtrees are pruned, 
+ * after which the search continues. Since the tree's objects live on the
+ * normal heap, the budget is not a hard cap on the memory actually used;
+ * it is only as accurate as our estimate.
+ * 
+ * For legal moves, we only count the memory that nodes keep: the list of
+ * moves and the Move objects in it, but not the temporary objects that 
+ * move generation allocates and discards. We measure this as the growth
+ * of the heap (after garbage collection) when keeping a number of lists of
+ * legal moves alive, once per game. This is capped by the total number of
+ * bytes allocated by move generation, in case garbage collection could 
+ * not be forced.
+ * 
+ * Every search thread holds (shared) a read lock during each iteration,
+ * and a thread that prunes holds the write lock, such that no thread ever
+ * sees a tree that is being pruned.
+ * 
+ * @author Dennis Soemers
+ */
+final class UCTMemoryManager
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Estimate of memory used by a node (excluding game state and legal moves), if we cannot measure it */
+	private static final long DEFAULT_NODE_BYTES = 256L;
+	
+	/** Estimate of memory used by a single legal move, if we cannot measure it */
+	private static final long DEFAULT_MOVE_BYTES = 128L;
+	
+	/** Estimate of memory used by a game state, if we cannot measure it */
+	private static final long DEFAULT_CONTEXT_BYTES = 16L * 1024L;
+	
+	/** When we prune, we prune until our trees use at most this fraction of our memory budget */
+	private static final double PRUNE_TARGET = 0.75;
+	
+	/** Number of lists of legal moves we keep alive to measure how much memory they retain */
+	private static final int NUM_MEASURED_MOVE_LISTS = 16;
+	
+	/** Maximum time we wait for other threads to finish their iterations before we can prune */
+	private static final long PRUNE_LOCK_TIMEOUT_MS = 50L;
+	
+	//-------------------------------------------------------------------------
+	
+	/** Maximum estimated memory usage of our search tree(s) in bytes (0 for no limit) */
+	private long memoryBudget = 0L;
+	
+	/** Estimated memory usage of the tree(s) we're searching, in bytes (only tracked if we have a memory budget) */
+	private final AtomicLong treeBytes = new AtomicLong(0L);
+	
+	/** Measured memory usage of a single copy of the game state we're searching from, in bytes */
+	private long contextBytes = DEFAULT_CONTEXT_BYTES;
+	
+	/** Measured memory usage of a single node (excluding game state and legal moves), in bytes */
+	private long nodeBytes = DEFAULT_NODE_BYTES;
+	
+	/** Measured memory retained per legal move generated in the state we're searching from, in bytes */
+	private long moveBytes = DEFAULT_MOVE_BYTES;
+	
+	/** Game for which we measured moveBytes (null if not yet measured) */
+	private Game moveBytesGame = null;
+	
+	/** Held (shared) by every thread during each iteration, and (exclusively) by a thread that prunes our tree(s) */
+	private final ReentrantReadWriteLock treeLock = new ReentrantReadWriteLock();
+	
+	/** Clock for least-recently-visited pruning, ticks once per iteration (never reset) */
+	private final AtomicLong lruClock = new AtomicLong(0L);
+	
+	/** Roots of the tree(s) we're currently searching, which we prune if they use too much memory */
+	private volatile UCTNode[] activeRoots = null;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Sets our memory budget
+	 * 
+	 * @param numBytes Budget in bytes (0 for no limit)
+	 */
+	void setMemoryBudget(final long numBytes)
+	{
+		this.memoryBudget = numBytes;
+	}
+	
+	/**
+	 * @return Whether we have a memory budget (if not, none of the other
+	 * 	methods need to be called during a search)
+	 */
+	boolean hasBudget()
+	{
+		return memoryBudget > 0L;
+	}
+	
+	/**
+	 * @return Estimated memory usage of the tree(s) we're searching, in bytes
+	 */
+	long treeBytes()
+	{
+		return treeBytes.get();
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Prepares for a search of the given tree(s): we measure how much memory
+	 * a copy of the current game state and a node use (and, the first time
+	 * we search in a game, how much memory a kept legal move uses), and
+	 * estimate how much memory the tree(s) use (which may be reused from a
+	 * previous search). From then on, we keep a running count of memory usage
+	 * during the search.
+	 * 
+	 * @param roots
+	 * @param context Game state for the root node(s)
+	 * @param openLoop Whether nodes are used in open-loop search
+	 */
+	void startTracking(final UCTNode[] roots, final Context context, final boolean openLoop)
+	{
+		activeRoots = roots;
+		
+		contextBytes = measureAllocatedBytes(() -> {new Context(context);}, DEFAULT_CONTEXT_BYTES);
+		nodeBytes = measureAllocatedBytes(() -> {new UCTNode(null, null, context, openLoop);}, DEFAULT_NODE_BYTES);
+		
+		if (moveBytesGame != context.game())
+		{
+			final int numMoves = context.game().moves(context).moves().size();
+			if (numMoves > 0)
+			{
+				// Everything allocated by move generation, including temporary objects, is an upper bound
+				final long allocatedBytes = measureAllocatedBytes(() -> {context.game().moves(context);}, -1L);
+				final long retainedBytes = measureRetainedMoveListBytes(context);
+				
+				long movesBytes = retainedBytes;
+				if (movesBytes <= 0L || (allocatedBytes > 0L && allocatedBytes < movesBytes))
+					movesBytes = allocatedBytes;
+				
+				moveBytes = (movesBytes <= 0L) ? DEFAULT_MOVE_BYTES : Math.max(1L, movesBytes / numMoves);
+				moveBytesGame = context.game();
+			}
+		}
+		
+		treeBytes.set(estimateTreeBytes(roots));
+	}
+	
+	/**
+	 * Starts an iteration from the given root: we first prune our tree(s)
+	 * if necessary, and then make sure that no other thread prunes during
+	 * our iteration. Every call must be followed by a call to endIteration().
+	 * 
+	 * @param root
+	 * @param telemetry Object in which we record any pruning (null if not used)
+	 * @return Tick of our LRU clock for this iteration, to be passed to nodeVisited()
+	 */
+	long startIteration(final UCTNode root, final SearchTelemetry telemetry)
+	{
+		if (treeBytes.get() > memoryBudget)
+			pruneTrees(telemetry);
+		
+		treeLock.readLock().lock();
+		final long lruStamp = lruClock.incrementAndGet();
+		root.lastVisit = lruStamp;
+		return lruStamp;
+	}
+	
+	/**
+	 * Ends an iteration started by startIteration()
+	 */
+	void endIteration()
+	{
+		treeLock.readLock().unlock();
+	}
+	
+	/**
+	 * Records that the given node was visited in the iteration with the
+	 * given tick of our LRU clock.
+	 * 
+	 * @param node
+	 * @param lruStamp
+	 * @param expanded Whether the node was newly expanded in this iteration
+	 */
+	void nodeVisited(final UCTNode node, final long lruStamp, final boolean expanded)
+	{
+		node.lastVisit = lruStamp;
+		if (expanded)
+			treeBytes.addAndGet(estimateBytes(node));
+	}
+	
+	/**
+	 * Records that legal moves were generated for the given node
+	 * 
+	 * @param node
+	 */
+	void legalMovesGenerated(final UCTNode node)
+	{
+		treeBytes.addAndGet(node.legalMoves.size() * moveBytes);
+	}
+	
+	/**
+	 * Records that a node that was pruned restored its game state
+	 */
+	void contextRestored()
+	{
+		treeBytes.addAndGet(contextBytes);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Prunes our tree(s) until they fit comfortably in our memory budget.
+	 * We repeatedly take the least-recently visited (non-root) node that
+	 * still has a subtree or game state, and discard its subtree, its game
+	 * state, and its legal moves. The node itself keeps its statistics, such
+	 * that its parent can still select it; it then restores its game state
+	 * from its parent's, and grows a new subtree. Nodes with proven outcomes
+	 * are never collapsed (though their unproven descendants may be), since
+	 * selecting the move that proves them requires their children.
+	 * 
+	 * Waits (for a limited time) until other threads have finished their
+	 * current iterations; if that takes too long, we'll try again in a later
+	 * iteration.
+	 * 
+	 * @param telemetry Object in which we record the pruning (null if not used)
+	 */
+	private void pruneTrees(final SearchTelemetry telemetry)
+	{
+		try
+		{
+			if (!treeLock.writeLock().tryLock(PRUNE_LOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+				return;
+		}
+		catch (final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return;
+		}
+		
+		try
+		{
+			// Another thread may have pruned while we were waiting
+			if (treeBytes.get() <= memoryBudget)
+				return;
+			
+			// Collect all nodes in pre-order, and compute how much memory they use
+			final List<UCTNode> candidates = new ArrayList<UCTNode>();
+			final List<UCTNode> stack = new ArrayList<UCTNode>();
+			long bytes = 0L;
+			
+			for (final UCTNode root : activeRoots)
+			{
+				stack.add(root);
+				
+				while (!stack.isEmpty())
+				{
+					final UCTNode node = stack.remove(stack.size() - 1);
+					bytes += estimateBytes(node);
+					
+					if
+					(
+						node.parent != null && node.provenUtilities == null &&
+						(node.context != null || node.legalMoves != null || !node.children.isEmpty())
+					)
+					{
+						candidates.add(node);
+					}
+					
+					stack.addAll(node.children);
+				}
+			}
+			
+			// Reversing pre-order puts all descendants of a node before it, and the stable
+			// sort keeps it that way for nodes visited in the same iteration
+			Collections.reverse(candidates);
+			candidates.sort((final UCTNode a, final UCTNode b) -> {return Long.compare(a.lastVisit, b.lastVisit);});
+			
+			final long bytesBefore = bytes;
+			final long targetBytes = (long) (PRUNE_TARGET * memoryBudget);
+			for (final UCTNode node : candidates)
+			{
+				if (bytes <= targetBytes)
+					break;
+				
+				// Nodes without parents were already removed along with an ancestor
+				if (node.parent != null)
+					bytes -= prune(node);
+			}
+			
+			treeBytes.set(bytes);
+			
+			if (telemetry != null)
+				telemetry.recordPruning(bytesBefore - bytes);
+		}
+		finally
+		{
+			treeLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Discards the subtree, game state and legal moves of the given node
+	 * 
+	 * @param node
+	 * @return Estimated number of bytes freed
+	 */
+	private long prune(final UCTNode node)
+	{
+		long bytesFreed = estimateBytes(node);
+		
+		final List<UCTNode> stack = new ArrayList<UCTNode>(node.children);
+		while (!stack.isEmpty())
+		{
+			final UCTNode descendant = stack.remove(stack.size() - 1);
+			bytesFreed += estimateBytes(descendant);
+			stack.addAll(descendant.children);
+			
+			// Marks the descendant as removed
+			descendant.parent = null;
+		}
+		
+		node.collapse();
+		return bytesFreed - estimateBytes(node);
+	}
+	
+	/**
+	 * @param node
+	 * @return Rough estimate of memory used by the given node, in bytes
+	 */
+	private long estimateBytes(final UCTNode node)
+	{
+		long bytes = nodeBytes;
+		
+		if (node.context != null)
+			bytes += contextBytes;
+		
+		final FastArrayList<Move> legalMoves = node.legalMoves;
+		if (legalMoves != null)
+			bytes += legalMoves.size() * moveBytes;
+		
+		final double[] evaluatorFeatures = node.evaluatorFeatures;
+		if (evaluatorFeatures != null)
+			bytes += 16L + evaluatorFeatures.length * Double.BYTES;
+		
+		return bytes;
+	}
+	
+	/**
+	 * @param roots
+	 * @return Rough estimate of memory used by the trees below the given roots, in bytes
+	 */
+	private long estimateTreeBytes(final UCTNode[] roots)
+	{
+		long bytes = 0L;
+		final List<UCTNode> stack = new ArrayList<UCTNode>();
+		
+		for (final UCTNode root : roots)
+		{
+			stack.add(root);
+			
+			while (!stack.isEmpty())
+			{
+				final UCTNode node = stack.remove(stack.size() - 1);
+				bytes += estimateBytes(node);
+				stack.addAll(node.children);
+			}
+		}
+		
+		return bytes;
+	}
+	
+	/**
+	 * Measures how much memory a single list of legal moves in the given 
+	 * state retains, as the growth of the used heap (after requesting garbage 
+	 * collection) while we keep a number of such lists alive. Lists are 
+	 * generated in copies of the state, such that they can't share any data
+	 * cached by the state itself.
+	 * 
+	 * @param context
+	 * @return Retained bytes per list of legal moves (<= 0 if we could not measure it)
+	 */
+	private static long measureRetainedMoveListBytes(final Context context)
+	{
+		final List<FastArrayList<Move>> lists = new ArrayList<FastArrayList<Move>>(NUM_MEASURED_MOVE_LISTS);
+		final long usedBefore = usedHeapAfterGc();
+		
+		for (int i = 0; i < NUM_MEASURED_MOVE_LISTS; ++i)
+		{
+			final Context copy = new Context(context);
+			lists.add(copy.game().moves(copy).moves());
+		}
+		
+		final long usedAfter = usedHeapAfterGc();
+		
+		// Lists must still be reachable here, or they could have been collected before we measured
+		return (lists.size() == NUM_MEASURED_MOVE_LISTS) ? (usedAfter - usedBefore) / NUM_MEASURED_MOVE_LISTS : -1L;
+	}
+	
+	/**
+	 * @return Number of bytes of heap memory in use, after (requesting) garbage collection
+	 */
+	private static long usedHeapAfterGc()
+	{
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i)
+		{
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	/**
+	 * Measures how many bytes the JVM allocates to run the given code (which
+	 * should only allocate the objects whose size we wish to know). This
+	 * requires support for measuring allocations per thread (as in HotSpot
+	 * JVMs); otherwise, we return the given default.
+	 * 
+	 * @param allocation Code allocating the objects to measure
+	 * @param defaultBytes Value to return if we cannot measure allocations
+	 * @return Number of bytes allocated by the given code
+	 */
+	private static long measureAllocatedBytes(final Runnable allocation, final long defaultBytes)
+	{
+		final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+		{
+			final com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+			if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled())
+			{
+				final long threadId = Thread.currentThread().getId();
+				final long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+				allocation.run();
+				final long allocatedBytes = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+				
+				if (allocatedBytes > 0L)
+					return allocatedBytes;
+			}
+		}
+		
+		return defaultBytes;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
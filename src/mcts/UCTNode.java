@@ -0,0 +1,402 @@
+package mcts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import main.collections.FastArrayList;
+import mcts.evaluation.MoveEvaluator;
+import other.context.Context;
+import other.move.Move;
+import other.trial.Trial;
+
+/**
+ * Nodes used by example UCT. Statistics are updated atomically, such that
+ * a node can be shared by multiple threads.
+ * 
+ * Package-private, such that the classes implementing parts of our search
+ * (and benchmarks in the same package) can access the fields of nodes.
+ * 
+ * @author Dennis Soemers
+ */
+class UCTNode
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Atomic updater for visit counts */
+	static final AtomicIntegerFieldUpdater<UCTNode> VISIT_COUNT =
+			AtomicIntegerFieldUpdater.newUpdater(UCTNode.class, "visitCount");
+	
+	/** Atomic updater for virtual losses */
+	static final AtomicIntegerFieldUpdater<UCTNode> VIRTUAL_LOSSES =
+			AtomicIntegerFieldUpdater.newUpdater(UCTNode.class, "virtualLosses");
+	
+	/** Our parent node (not final, because it is cleared when we're promoted to root node) */
+	UCTNode parent;
+	
+	/** The move that led from parent to this node */
+	final Move moveFromParent;
+	
+	/** 
+	 * This objects contains the game state for this node (this is why we don't support stochastic games).
+	 * Null for non-root nodes in open-loop search, and for nodes that were pruned.
+	 */
+	volatile Context context;
+	
+	/** Full hash of the game state in this node (0 for non-root nodes in open-loop search) */
+	final long hash;
+	
+	/** Slot of the transposition table in which we last found or updated this node's state */
+	volatile int ttSlot = UCTTranspositionTable.NOT_FOUND;
+	
+	/** Visit count for this node */
+	volatile int visitCount = 0;
+	
+	/** Number of threads currently traversing this node, each counting as a (temporary) loss */
+	volatile int virtualLosses = 0;
+	
+	/** For every player, sum of utilities / scores backpropagated through this node (stored as raw double bits) */
+	final AtomicLongArray scoreSums;
+	
+	/** Child nodes */
+	final List<UCTNode> children = new ArrayList<UCTNode>();
+	
+	/** Mapping from moves to child nodes (only used in open-loop search) */
+	final Map<Move, UCTNode> childrenByMove;
+	
+	/** 
+	 * Legal moves in this node's state, generated the first time we select
+	 * from this node (null until then, and always null in open-loop search).
+	 * This list is never modified, so we do not need our own copy of it.
+	 */
+	volatile FastArrayList<Move> legalMoves = null;
+	
+	/** Number of legal moves for which we created a child node */
+	int numExpanded = 0;
+	
+	/** 
+	 * Without an expansion prior, we expand legal moves in pseudorandom order: 
+	 * indices start, start + stride, start + 2 * stride, etc. (modulo the number 
+	 * of legal moves, with a stride that is coprime to that number). This is the 
+	 * position in that order of the next move to try.
+	 */
+	int expansionOrderPos = 0;
+	
+	/** Index of first legal move in our pseudorandom expansion order */
+	int expansionStart = 0;
+	
+	/** Stride of our pseudorandom expansion order */
+	int expansionStride = 1;
+	
+	/** For every legal move, whether we expanded it (only allocated once we expand by prior) */
+	boolean[] expandedMoves = null;
+	
+	/** 
+	 * Set to true once all children have been created. After this, the list 
+	 * of children no longer changes and may be read without locking.
+	 */
+	volatile boolean fullyExpanded = false;
+	
+	/** Utilities for all players if the outcome of this node is proven (see UCTSolver), null otherwise */
+	volatile double[] provenUtilities = null;
+	
+	/** Index of moveFromParent in our parent's list of legal moves (-1 if unknown, e.g. in open-loop search) */
+	int moveIdx = -1;
+	
+	/** All-moves-as-first statistics for our legal moves, used by RAVE (null until first needed) */
+	volatile AmafStatistics amaf = null;
+	
+	/** Features of our state computed by a leaf evaluator, from which those of our children are derived (null if not computed) */
+	volatile double[] evaluatorFeatures = null;
+	
+	/** Tick of the LRU clock in the last iteration that visited this node (only tracked with a memory budget) */
+	long lastVisit = 0L;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param parent
+	 * @param moveFromParent
+	 * @param context Game state for this node (null for non-root nodes in open-loop search)
+	 * @param openLoop Whether this node is used in open-loop search
+	 */
+	public UCTNode(final UCTNode parent, final Move moveFromParent, final Context context, final boolean openLoop)
+	{
+		this.parent = parent;
+		this.moveFromParent = moveFromParent;
+		this.context = context;
+		this.hash = (context == null) ? 0L : context.state().fullHash();
+		
+		if (openLoop)
+		{
+			if (parent == null)
+				scoreSums = new AtomicLongArray(context.game().players().count() + 1);
+			else
+				scoreSums = new AtomicLongArray(parent.scoreSums.length());
+			
+			// Legal moves are generated again in every visit
+			childrenByMove = new HashMap<Move, UCTNode>();
+		}
+		else
+		{
+			scoreSums = new AtomicLongArray(context.game().players().count() + 1);
+			
+			// Legal moves are only generated once we select from this node, 
+			// such that leaves that are never visited again don't need them
+			childrenByMove = null;
+		}
+		
+		if (parent != null)
+		{
+			parent.children.add(this);
+			
+			if (openLoop)
+				parent.childrenByMove.put(moveFromParent, this);
+		}
+	}
+	
+	/**
+	 * @return Game state for this node (null for non-root nodes in open-loop search, and pruned nodes)
+	 */
+	Context context()
+	{
+		return context;
+	}
+	
+	/**
+	 * @return Whether we created child nodes for all legal moves
+	 */
+	boolean isFullyExpanded()
+	{
+		return fullyExpanded;
+	}
+	
+	/**
+	 * @param p
+	 * @return Sum of scores backpropagated through this node for given player
+	 */
+	public double scoreSum(final int p)
+	{
+		return Double.longBitsToDouble(scoreSums.get(p));
+	}
+	
+	/**
+	 * Atomically adds the given score to the sum of scores for given player
+	 * 
+	 * @param p
+	 * @param score
+	 */
+	public void addScore(final int p, final double score)
+	{
+		while (true)
+		{
+			final long oldBits = scoreSums.get(p);
+			final long newBits = Double.doubleToRawLongBits(Double.longBitsToDouble(oldBits) + score);
+			
+			if (scoreSums.compareAndSet(p, oldBits, newBits))
+				return;
+		}
+	}
+	
+	/**
+	 * Generates the legal moves in this node's state, unless we already did
+	 * so. For simplicity, we just take ALL legal moves. This means we do not 
+	 * support simultaneous-move games.
+	 * 
+	 * @return True if we generated the legal moves in this call
+	 */
+	public boolean generateLegalMoves()
+	{
+		if (legalMoves != null)
+			return false;
+		
+		synchronized (this)
+		{
+			if (legalMoves != null)
+				return false;
+			
+			final FastArrayList<Move> moves = context.game().moves(context).moves();
+			final int numMoves = moves.size();
+			final ThreadLocalRandom rng = ThreadLocalRandom.current();
+			
+			if (numMoves > 1)
+				expansionStart = rng.nextInt(numMoves);
+			
+			if (numMoves > 2)
+			{
+				do
+				{
+					expansionStride = 1 + rng.nextInt(numMoves - 1);
+				}
+				while (gcd(expansionStride, numMoves) != 1);
+			}
+			
+			legalMoves = moves;
+			return true;
+		}
+	}
+	
+	/**
+	 * Recreates the game state of this node (after it was pruned) by applying 
+	 * the move that led to it to a copy of its parent's game state, unless 
+	 * another thread already did so.
+	 * 
+	 * @return True if we recreated the game state in this call
+	 */
+	public boolean restoreContext()
+	{
+		synchronized (this)
+		{
+			if (context != null)
+				return false;
+			
+			final Context newContext = new Context(parent.context);
+			newContext.game().apply(newContext, moveFromParent);
+			context = newContext;
+			return true;
+		}
+	}
+	
+	/**
+	 * Discards all children, the game state, legal moves, AMAF statistics and
+	 * evaluator features of this (non-root) node, such that it becomes a leaf again. Our own 
+	 * statistics are kept. Must only be called while no other threads are 
+	 * using the tree, and not for nodes with proven outcomes (which would 
+	 * keep their proof, but lose the children it is based on).
+	 */
+	public void collapse()
+	{
+		children.clear();
+		if (childrenByMove != null)
+			childrenByMove.clear();
+		
+		context = null;
+		legalMoves = null;
+		numExpanded = 0;
+		expansionOrderPos = 0;
+		expansionStart = 0;
+		expansionStride = 1;
+		expandedMoves = null;
+		fullyExpanded = false;
+		
+		amaf = null;
+		evaluatorFeatures = null;
+	}
+	
+	/**
+	 * Updates our all-moves-as-first (AMAF) statistics: every legal move in 
+	 * this node's state that was played by our mover at any later point in
+	 * the given trial (only its first occurrence counts) is credited with the
+	 * mover's utility. Nodes for which we did not yet generate legal moves 
+	 * are skipped. Statistics are allocated in the first update of a node, 
+	 * after which updates do not allocate any memory.
+	 * 
+	 * @param trial Trial containing all moves played in the current iteration
+	 * @param utilities Utilities backpropagated in the current iteration
+	 * @param stamp Unique number of the current iteration
+	 */
+	public void updateAmaf(final Trial trial, final double[] utilities, final int stamp)
+	{
+		final FastArrayList<Move> moves = legalMoves;
+		if (moves == null)
+			return;
+		
+		final int mover = context.state().mover();
+		
+		// Other threads may be updating the same statistics at the same time
+		synchronized (this)
+		{
+			if (amaf == null)
+				amaf = new AmafStatistics(moves);
+			
+			amaf.update(trial, context.trial().numMoves(), mover, utilities[mover], stamp);
+		}
+	}
+	
+	/**
+	 * Picks the next legal move to expand, and marks it as expanded. Must
+	 * only be called while holding this node's lock, and only if there
+	 * still are unexpanded moves.
+	 * 
+	 * @param expansionPrior Evaluator to decide which move to expand (null for pseudorandom order)
+	 * @return Index of the legal move to expand
+	 */
+	public int nextMoveToExpand(final MoveEvaluator expansionPrior)
+	{
+		final int numMoves = legalMoves.size();
+		int idx;
+		
+		if (expansionPrior == null)
+		{
+			// Next move in our pseudorandom order that was not already expanded by prior
+			do
+			{
+				idx = expansionOrderIdx(expansionOrderPos++);
+			}
+			while (expandedMoves != null && expandedMoves[idx]);
+		}
+		else
+		{
+			if (expandedMoves == null)
+			{
+				// Mark all moves we already expanded in pseudorandom order
+				expandedMoves = new boolean[numMoves];
+				for (int pos = 0; pos < expansionOrderPos; ++pos)
+				{
+					expandedMoves[expansionOrderIdx(pos)] = true;
+				}
+			}
+			
+			// Move with the highest prior value among those not yet expanded
+			idx = -1;
+			double bestValue = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < numMoves; ++i)
+			{
+				if (expandedMoves[i])
+					continue;
+				
+				final double value = expansionPrior.evaluateMove(context, legalMoves.get(i));
+				if (idx < 0 || value > bestValue)
+				{
+					bestValue = value;
+					idx = i;
+				}
+			}
+		}
+		
+		if (expandedMoves != null)
+			expandedMoves[idx] = true;
+		
+		++numExpanded;
+		return idx;
+	}
+	
+	/**
+	 * @param pos
+	 * @return Index of legal move at given position in our pseudorandom expansion order
+	 */
+	private int expansionOrderIdx(final int pos)
+	{
+		return (int) ((expansionStart + (long) pos * expansionStride) % legalMoves.size());
+	}
+	
+	/**
+	 * @param a
+	 * @param b
+	 * @return Greatest common divisor of a and b
+	 */
+	private static int gcd(final int a, final int b)
+	{
+		return (b == 0) ? a : gcd(b, a % b);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
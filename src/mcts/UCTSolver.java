@@ -0,0 +1,127 @@
+package mcts;
+
+import other.RankUtils;
+import other.context.Context;
+
+/**
+ * MCTS-Solver for ExampleUCT (closed-loop search only). Nodes with terminal
+ * game states have proven outcomes, which are propagated up the tree for
+ * as long as they prove the outcomes of parents. Proven utilities are stored
+ * in the nodes themselves (null for nodes whose outcome is not proven).
+ * 
+ * @author Dennis Soemers
+ */
+final class UCTSolver
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Utility of a win (the best possible outcome) */
+	static final double WIN = 1.0;
+	
+	/** Utility of a loss (the worst possible outcome) */
+	static final double LOSS = -1.0;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 */
+	private UCTSolver()
+	{
+		// do not instantiate
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Proves the outcome of the given node, of which the given game state is
+	 * terminal, unless it was already proven.
+	 * 
+	 * @param node
+	 * @param context Terminal game state for the node
+	 */
+	static void proveTerminal(final UCTNode node, final Context context)
+	{
+		if (node.provenUtilities == null)
+			node.provenUtilities = RankUtils.utilities(context);
+	}
+	
+	/**
+	 * Tries to prove the outcome of the given node from the proven outcomes
+	 * of its children. The outcome is proven if any child is a proven win
+	 * for the mover in the node, or if all legal moves have been expanded
+	 * and all children are proven. In the latter case, the mover gets the best
+	 * of their outcomes (so a node is only a proven loss for its mover if all
+	 * children are proven losses for that mover).
+	 * 
+	 * @param node
+	 * @return True if the outcome of the node is proven
+	 */
+	static boolean tryProve(final UCTNode node)
+	{
+		if (node.provenUtilities != null)
+			return true;
+		
+		final int mover = node.context.state().mover();
+		
+		// Other threads may be trying to expand this node at the same time
+		synchronized (node)
+		{
+			double[] best = null;
+			boolean allProven = node.fullyExpanded;
+			
+			for (final UCTNode child : node.children)
+			{
+				final double[] childUtilities = child.provenUtilities;
+				
+				if (childUtilities == null)
+				{
+					allProven = false;
+				}
+				else if (childUtilities[mover] >= WIN)
+				{
+					node.provenUtilities = childUtilities;
+					return true;
+				}
+				else if (best == null || childUtilities[mover] > best[mover])
+				{
+					best = childUtilities;
+				}
+			}
+			
+			if (allProven && best != null)
+			{
+				node.provenUtilities = best;
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * @param node
+	 * @param player
+	 * @return True if the given node is a proven win for the given player
+	 */
+	static boolean isProvenWin(final UCTNode node, final int player)
+	{
+		final double[] provenUtilities = node.provenUtilities;
+		return (provenUtilities != null && provenUtilities[player] >= WIN);
+	}
+	
+	/**
+	 * @param node
+	 * @param player
+	 * @return True if the given node is a proven loss for the given player
+	 */
+	static boolean isProvenLoss(final UCTNode node, final int player)
+	{
+		final double[] provenUtilities = node.provenUtilities;
+		return (provenUtilities != null && provenUtilities[player] <= LOSS);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -0,0 +1,289 @@
+package mcts;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded transposition table for UCT, storing visit counts and sums of
+ * backpropagated scores per game state, keyed by the state's full hash.
+ * Statistics of all paths through the search tree that lead to the same
+ * state are aggregated in the same entry.
+ * 
+ * The table uses open addressing with buckets of a fixed number of
+ * consecutive slots; a key can only be stored in the bucket indexed by
+ * the lower bits of the key. When a new key must be inserted in a full
+ * bucket, the entry with the lowest visit count in that bucket is replaced.
+ * All data is stored in primitive arrays which are allocated once.
+ * 
+ * Updates lock only the bucket they write to (lock striping), such that
+ * the table can be shared by multiple threads. Reads do not lock, and may
+ * therefore occasionally observe slightly outdated statistics. Users are
+ * expected to remember the slots returned by find() and update(), and to 
+ * check them with holds(), rather than calling find() in hot loops.
+ * 
+ * @author Dennis Soemers
+ */
+public class UCTTranspositionTable
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Returned by find() when a key is not in the table */
+	public static final int NOT_FOUND = -1;
+	
+	/** Number of slots per bucket */
+	private static final int BUCKET_SIZE = 4;
+	
+	/** Number of locks we use for buckets */
+	private static final int NUM_LOCKS = 1024;
+	
+	//-------------------------------------------------------------------------
+	
+	/** Number of entries per slot in the scoreSums array (number of players + 1) */
+	private final int stride;
+	
+	/** Mask to extract a bucket index from a key */
+	private final int bucketMask;
+	
+	/** For every slot, the key (full state hash) stored in it */
+	private final long[] keys;
+	
+	/** For every slot, the visit count (0 for empty slots) */
+	private final int[] visitCounts;
+	
+	/** For every slot, for every player, the sum of scores (indexed by slot * stride + player) */
+	private final double[] scoreSums;
+	
+	/** Locks for buckets */
+	private final Object[] locks;
+	
+	/** Number of calls to find() */
+	private final LongAdder numLookups = new LongAdder();
+	
+	/** Number of calls to find() that found their key */
+	private final LongAdder numHits = new LongAdder();
+	
+	/** Number of insertions of new keys for which the first slot of their bucket was occupied by a different key */
+	private final LongAdder numCollisions = new LongAdder();
+	
+	/** Number of insertions of new keys that replaced an entry for a different key */
+	private final LongAdder numReplacements = new LongAdder();
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param numBits The table will have 2^numBits slots
+	 * @param numPlayers
+	 */
+	public UCTTranspositionTable(final int numBits, final int numPlayers)
+	{
+		final int numSlots = 1 << Math.max(numBits, 2);
+		stride = numPlayers + 1;
+		bucketMask = (numSlots / BUCKET_SIZE) - 1;
+		keys = new long[numSlots];
+		visitCounts = new int[numSlots];
+		scoreSums = new double[numSlots * stride];
+		
+		locks = new Object[NUM_LOCKS];
+		for (int i = 0; i < NUM_LOCKS; ++i)
+		{
+			locks[i] = new Object();
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param key
+	 * @return Slot in which the given key is stored, or NOT_FOUND
+	 */
+	public int find(final long key)
+	{
+		numLookups.increment();
+		
+		final int firstSlot = bucket(key) * BUCKET_SIZE;
+		for (int slot = firstSlot; slot < firstSlot + BUCKET_SIZE; ++slot)
+		{
+			if (keys[slot] == key && visitCounts[slot] > 0)
+			{
+				numHits.increment();
+				return slot;
+			}
+		}
+		
+		return NOT_FOUND;
+	}
+	
+	/**
+	 * Checks whether a slot found (or updated) earlier still holds the entry
+	 * for the given key, i.e. whether that entry was not replaced since. 
+	 * Unlike find(), this does not count as a lookup.
+	 * 
+	 * @param slot
+	 * @param key
+	 * @return Whether the entry in the given slot is the one for the given key
+	 */
+	public boolean holds(final int slot, final long key)
+	{
+		return keys[slot] == key && visitCounts[slot] > 0;
+	}
+	
+	/**
+	 * @param slot
+	 * @return Visit count of entry in given slot
+	 */
+	public int visitCount(final int slot)
+	{
+		return visitCounts[slot];
+	}
+	
+	/**
+	 * @param slot
+	 * @param player
+	 * @return Sum of scores for given player of entry in given slot
+	 */
+	public double scoreSum(final int slot, final int player)
+	{
+		return scoreSums[slot * stride + player];
+	}
+	
+	/**
+	 * Adds one visit with the given utilities to the entry for the given key,
+	 * inserting a new entry (possibly replacing an old one) if needed.
+	 * 
+	 * @param key
+	 * @param utilities Utilities for all players (indexed from 1)
+	 * @return Slot in which the entry for the given key is stored
+	 */
+	public int update(final long key, final double[] utilities)
+	{
+		final int bucket = bucket(key);
+		final int firstSlot = bucket * BUCKET_SIZE;
+		
+		synchronized (locks[bucket & (NUM_LOCKS - 1)])
+		{
+			int targetSlot = NOT_FOUND;
+			int emptySlot = NOT_FOUND;
+			int leastVisitedSlot = firstSlot;
+			
+			for (int slot = firstSlot; slot < firstSlot + BUCKET_SIZE; ++slot)
+			{
+				if (visitCounts[slot] == 0)
+				{
+					if (emptySlot == NOT_FOUND)
+						emptySlot = slot;
+				}
+				else if (keys[slot] == key)
+				{
+					targetSlot = slot;
+					break;
+				}
+				else if (visitCounts[slot] < visitCounts[leastVisitedSlot])
+				{
+					leastVisitedSlot = slot;
+				}
+			}
+			
+			if (targetSlot == NOT_FOUND)
+			{
+				// Need to insert a new entry
+				if (visitCounts[firstSlot] != 0)
+					numCollisions.increment();
+				
+				if (emptySlot != NOT_FOUND)
+				{
+					targetSlot = emptySlot;
+				}
+				else
+				{
+					targetSlot = leastVisitedSlot;
+					numReplacements.increment();
+				}
+				
+				Arrays.fill(scoreSums, targetSlot * stride, (targetSlot + 1) * stride, 0.0);
+				keys[targetSlot] = key;
+				visitCounts[targetSlot] = 0;
+			}
+			
+			final int offset = targetSlot * stride;
+			for (int p = 1; p < stride; ++p)
+			{
+				scoreSums[offset + p] += utilities[p];
+			}
+			visitCounts[targetSlot] += 1;
+			return targetSlot;
+		}
+	}
+	
+	/**
+	 * Removes all entries and resets all counters
+	 */
+	public void clear()
+	{
+		Arrays.fill(visitCounts, 0);
+		numLookups.reset();
+		numHits.reset();
+		numCollisions.reset();
+		numReplacements.reset();
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @return Number of lookups performed
+	 */
+	public long numLookups()
+	{
+		return numLookups.sum();
+	}
+	
+	/**
+	 * @return Number of lookups that found their key
+	 */
+	public long numHits()
+	{
+		return numHits.sum();
+	}
+	
+	/**
+	 * @return Fraction of lookups that found their key
+	 */
+	public double hitRate()
+	{
+		final long lookups = numLookups();
+		return (lookups == 0L) ? 0.0 : (double) numHits() / lookups;
+	}
+	
+	/**
+	 * @return Number of insertions that found the first slot of their bucket
+	 * 	occupied by a different key
+	 */
+	public long numCollisions()
+	{
+		return numCollisions.sum();
+	}
+	
+	/**
+	 * @return Number of insertions that replaced an entry for a different key
+	 */
+	public long numReplacements()
+	{
+		return numReplacements.sum();
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param key
+	 * @return Index of bucket for given key
+	 */
+	private int bucket(final long key)
+	{
+		return ((int) (key ^ (key >>> 32))) & bucketMask;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -0,0 +1,355 @@
+package mcts;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import main.collections.FastArrayList;
+import mcts.evaluation.MoveEvaluator;
+import other.context.Context;
+import other.move.Move;
+
+/**
+ * Tree policy of ExampleUCT: selects children according to the UCB1
+ * equation, and expands new nodes. In closed-loop search, this can be
+ * combined with a transposition table (for the exploitation term of UCB1),
+ * progressive widening (limiting the number of children of a node as a
+ * function of its visit count), an expansion prior (deciding which moves
+ * to expand first), and RAVE (blending in all-moves-as-first statistics).
+ * Open-loop search uses plain UCB1, since legal moves may differ between
+ * visits of the same node.
+ * 
+ * @author Dennis Soemers
+ */
+final class UCTTreePolicy
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Coefficient C for progressive widening (0 to disable) */
+	private double wideningCoefficient = 0.0;
+	
+	/** Exponent alpha for progressive widening */
+	private double wideningExponent = 0.5;
+	
+	/** If not null, we expand moves in order of decreasing value according to this evaluator */
+	private MoveEvaluator expansionPrior = null;
+	
+	/** Equivalence parameter k for RAVE (0 to disable RAVE) */
+	private double raveEquivalence = 0.0;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Sets the parameters for progressive widening: a node with n visits
+	 * may have at most ceil(C * n^alpha) children.
+	 * 
+	 * @param coefficient C (0 to disable progressive widening)
+	 * @param exponent alpha
+	 */
+	void setProgressiveWidening(final double coefficient, final double exponent)
+	{
+		this.wideningCoefficient = coefficient;
+		this.wideningExponent = exponent;
+	}
+	
+	/**
+	 * Sets an evaluator that decides which unexpanded move we expand first
+	 * 
+	 * @param expansionPrior (null to expand in pseudorandom order)
+	 */
+	void setExpansionPrior(final MoveEvaluator expansionPrior)
+	{
+		this.expansionPrior = expansionPrior;
+	}
+	
+	/**
+	 * Sets the equivalence parameter for RAVE
+	 * 
+	 * @param equivalence k (0 to disable RAVE)
+	 */
+	void setRave(final double equivalence)
+	{
+		this.raveEquivalence = equivalence;
+	}
+	
+	/**
+	 * @return Whether we use RAVE (in which case nodes need AMAF statistics)
+	 */
+	boolean usesRave()
+	{
+		return raveEquivalence > 0.0;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Selects child of the given "current" node according to UCB1 equation.
+	 * This method also implements the "Expansion" phase of MCTS, and creates
+	 * a new node if the given current node has unexpanded moves.
+	 * 
+	 * With progressive widening, we only expand a new node if the current
+	 * node has fewer children than it may have at this time. Otherwise, we
+	 * select among the existing children (while holding the current node's
+	 * lock, because other threads may still add children).
+	 * 
+	 * @param current
+	 * @param useVirtualLoss If true, we add a virtual loss to the selected child
+	 * @param tt Transposition table from which to take statistics for exploitation (null if not used)
+	 * @return Selected node (if it has 0 visits, it will be a newly-expanded node).
+	 */
+	UCTNode select(final UCTNode current, final boolean useVirtualLoss, final UCTTranspositionTable tt)
+	{
+		if (!current.fullyExpanded)
+		{
+			final int maxNumChildren = maxNumChildren(current);
+			
+			// Legal moves are generated the first time we select from a node
+			current.generateLegalMoves();
+			
+			// Other threads may be trying to expand this node at the same time
+			synchronized (current)
+			{
+				if (current.numExpanded < current.legalMoves.size())
+				{
+					if (current.children.size() >= maxNumChildren)
+					{
+						// Progressive widening doesn't allow any new children yet
+						return selectUCB1(current, useVirtualLoss, tt);
+					}
+					
+					// select an unexpanded move (pseudorandomly, or the one with the highest prior value)
+					final int moveIdx = current.nextMoveToExpand(expansionPrior);
+					final Move move = current.legalMoves.get(moveIdx);
+					
+					// create a copy of context
+					final Context context = new Context(current.context);
+					
+					// apply the move
+					context.game().apply(context, move);
+					
+					// create new node and return it
+					final UCTNode newNode = new UCTNode(current, move, context, false);
+					newNode.moveIdx = moveIdx;
+					
+					// Look up the new state once, in case it's a transposition of a state we already searched
+					if (tt != null)
+						newNode.ttSlot = tt.find(newNode.hash);
+					if (useVirtualLoss)
+						UCTNode.VIRTUAL_LOSSES.incrementAndGet(newNode);
+					
+					if (current.numExpanded == current.legalMoves.size())
+						current.fullyExpanded = true;
+					
+					return newNode;
+				}
+				
+				current.fullyExpanded = true;
+			}
+		}
+		
+		return selectUCB1(current, useVirtualLoss, tt);
+	}
+	
+	/**
+	 * Selects child of the given "current" node according to UCB1 equation,
+	 * among the children it already has. With RAVE, the exploitation term of
+	 * UCB1 blends the children's own average scores with the current node's
+	 * AMAF statistics for their moves.
+	 * 
+	 * @param current
+	 * @param useVirtualLoss If true, we add a virtual loss to the selected child
+	 * @param tt Transposition table from which to take statistics for exploitation (null if not used)
+	 * @return Selected node
+	 */
+	private UCTNode selectUCB1(final UCTNode current, final boolean useVirtualLoss, final UCTTranspositionTable tt)
+	{
+		// AMAF statistics for the current node's legal moves (null if not used)
+		final AmafStatistics amaf = (raveEquivalence > 0.0) ? current.amaf : null;
+		
+		// use UCB1 equation to select from all children, with random tie-breaking
+		UCTNode bestChild = null;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        final double sqrtTwoParentLog = UCBTables.sqrtTwoLog(current.visitCount);
+        int numBestFound = 0;
+        final ThreadLocalRandom rng = ThreadLocalRandom.current();
+        
+        final int numChildren = current.children.size();
+        final int mover = current.context.state().mover();
+        
+        for (int i = 0; i < numChildren; ++i)
+        {
+        	final UCTNode child = current.children.get(i);
+        	
+        	// Virtual losses count as visits in which the mover lost
+        	final int virtualLosses = child.virtualLosses;
+        	final int visitCount = child.visitCount + virtualLosses;
+        	
+        	// If we have statistics for this state in our transposition table, we use those for exploitation
+        	// (unless the child's entry was replaced since we last looked it up or updated it)
+        	final int ttSlot = child.ttSlot;
+        	final double exploit;
+        	if (tt == null || ttSlot == UCTTranspositionTable.NOT_FOUND || !tt.holds(ttSlot, child.hash))
+        		exploit = (child.scoreSum(mover) - virtualLosses) * UCBTables.reciprocal(visitCount);
+        	else
+        		exploit = (tt.scoreSum(ttSlot, mover) - virtualLosses) * UCBTables.reciprocal(tt.visitCount(ttSlot) + virtualLosses);
+        	
+        	// With RAVE, we blend in the AMAF average, with a weight beta that decreases as the child gets more visits
+        	final double value;
+        	if (amaf != null && child.moveIdx >= 0 && amaf.visits(child.moveIdx) > 0)
+        	{
+        		final double amafValue = amaf.average(child.moveIdx);
+        		final double beta = Math.sqrt(raveEquivalence / (3.0 * visitCount + raveEquivalence));
+        		value = (1.0 - beta) * exploit + beta * amafValue;
+        	}
+        	else
+        	{
+        		value = exploit;
+        	}
+        	
+        	final double explore = sqrtTwoParentLog * UCBTables.invSqrt(visitCount);
+            
+            // Children with proven outcomes need no exploration (so we never select
+            // proven losses, unless all children are proven)
+            final double[] provenUtilities = child.provenUtilities;
+            final double ucb1Value = (provenUtilities == null) ? value + explore : provenUtilities[mover];
+            
+            if (ucb1Value > bestValue)
+            {
+                bestValue = ucb1Value;
+                bestChild = child;
+                numBestFound = 1;
+            }
+            else if
+            (
+            	ucb1Value == bestValue &&
+            	rng.nextInt() % ++numBestFound == 0
+            )
+            {
+            	// this case implements random tie-breaking
+            	bestChild = child;
+            }
+        }
+        
+        if (useVirtualLoss)
+        	UCTNode.VIRTUAL_LOSSES.incrementAndGet(bestChild);
+        
+        return bestChild;
+	}
+	
+	/**
+	 * Variant of select() for open-loop search, in which nodes do not store
+	 * game states. The given context must contain the state reached by
+	 * applying all moves from the root node to the given "current" node.
+	 * We generate legal moves in that state, and match them against our
+	 * children by move equality. If any legal moves do not yet have a child,
+	 * we expand one of them (uniformly at random). Otherwise, we select a
+	 * child according to the UCB1 equation. The move leading to the selected
+	 * child is applied to the given context.
+	 * 
+	 * In stochastic games, different legal moves may be available in different
+	 * visits of the same node, and children for moves that are illegal in the
+	 * current state are simply ignored.
+	 * 
+	 * @param current
+	 * @param context State for current node, will be modified!
+	 * @param useVirtualLoss If true, we add a virtual loss to the selected child
+	 * @return Selected node (if it has 0 visits, it will be a newly-expanded node).
+	 */
+	static UCTNode selectOpenLoop(final UCTNode current, final Context context, final boolean useVirtualLoss)
+	{
+		final FastArrayList<Move> legalMoves = context.game().moves(context).moves();
+		final int mover = context.state().mover();
+		
+		UCTNode selectedChild = null;
+		Move selectedMove = null;
+		
+		// Other threads may be trying to expand this node at the same time
+		synchronized (current)
+		{
+			// While looping through legal moves, we use reservoir sampling to uniformly
+			// pick one of the moves that do not yet have a child node, and track the
+			// best child according to UCB1 in case all moves already have children
+			Move unexpandedMove = null;
+			int numUnexpandedMoves = 0;
+	        
+	        double bestValue = Double.NEGATIVE_INFINITY;
+	        final double sqrtTwoParentLog = UCBTables.sqrtTwoLog(current.visitCount);
+	        int numBestFound = 0;
+	        final ThreadLocalRandom rng = ThreadLocalRandom.current();
+	        
+	        final int numLegalMoves = legalMoves.size();
+	        
+	        for (int i = 0; i < numLegalMoves; ++i)
+	        {
+	        	final Move move = legalMoves.get(i);
+	        	final UCTNode child = current.childrenByMove.get(move);
+	        	
+	        	if (child == null)
+	        	{
+	        		if (rng.nextInt(++numUnexpandedMoves) == 0)
+	        			unexpandedMove = move;
+	        	}
+	        	else if (numUnexpandedMoves == 0)
+	        	{
+	        		// Virtual losses count as visits in which the mover lost
+		        	final int virtualLosses = child.virtualLosses;
+		        	final int visitCount = child.visitCount + virtualLosses;
+		        	
+		        	final double exploit = (child.scoreSum(mover) - virtualLosses) * UCBTables.reciprocal(visitCount);
+		        	final double explore = sqrtTwoParentLog * UCBTables.invSqrt(visitCount);
+		            
+		            final double ucb1Value = exploit + explore;
+		            
+		            if (ucb1Value > bestValue)
+		            {
+		                bestValue = ucb1Value;
+		                selectedChild = child;
+		                selectedMove = move;
+		                numBestFound = 1;
+		            }
+		            else if
+		            (
+		            	ucb1Value == bestValue &&
+		            	rng.nextInt() % ++numBestFound == 0
+		            )
+		            {
+		            	// this case implements random tie-breaking
+		            	selectedChild = child;
+		            	selectedMove = move;
+		            }
+	        	}
+	        }
+	        
+	        if (unexpandedMove != null)
+	        {
+	        	// create new node (without a game state)
+	        	selectedChild = new UCTNode(current, unexpandedMove, null, true);
+	        	selectedMove = unexpandedMove;
+	        }
+		}
+		
+		if (useVirtualLoss)
+        	UCTNode.VIRTUAL_LOSSES.incrementAndGet(selectedChild);
+		
+		// apply the move (the one we just generated, rather than the copy stored in the node)
+		context.game().apply(context, selectedMove);
+		
+		return selectedChild;
+	}
+	
+	/**
+	 * @param node
+	 * @return Maximum number of children the given node may have, according
+	 * to progressive widening: ceil(C * n^alpha), where n is the node's visit
+	 * count (always at least 1).
+	 */
+	private int maxNumChildren(final UCTNode node)
+	{
+		if (wideningCoefficient <= 0.0 || node.fullyExpanded)
+			return Integer.MAX_VALUE;
+		
+		return Math.max(1, (int) Math.ceil(wideningCoefficient * Math.pow(node.visitCount, wideningExponent)));
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
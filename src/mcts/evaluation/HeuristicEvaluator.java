@@ -0,0 +1,383 @@
+package mcts.evaluation;
+
+import java.util.Arrays;
+import java.util.List;
+
+import game.Game;
+import game.types.board.SiteType;
+import other.action.Action;
+import other.context.Context;
+import other.move.Move;
+import other.state.container.ContainerState;
+import other.topology.TopologyElement;
+
+/**
+ * A heuristic state evaluator combining three simple features:
+ * 	- Material: the number of pieces every player has on the board.
+ * 	- Mobility: the number of legal moves of the player to move.
+ * 	- Position: how close to the centre of the board every player's pieces
+ * 	are, on average.
+ * 
+ * For every feature, we compute a score in [-1, 1] for every player that
+ * compares that player to the average of their opponents. The weighted sum
+ * of these scores is squashed into [-1, 1] using tanh.
+ * 
+ * Like in the Tutorial, pieces are read from the board's ContainerState.
+ * However, rather than cloning its chunk sets (with cloneWhoCell() etc.)
+ * in every call, which would be the most expensive part of an evaluation,
+ * we query the owner and count of every site directly. Data that depends
+ * only on the game (the site type we look at, the number of sites, and the
+ * centrality of every site) is computed once per game and cached.
+ * 
+ * The material and positional features are sums over the sites of the 
+ * board, which callers can cache per state (see computeFeatures()). Given 
+ * the features of a parent state, updateFeatures() only rescans the sites 
+ * that the last move changed, as recorded in the from and to sites of its
+ * actions. If any of these actions refers to sites of a different type 
+ * than the ones we look at, we can't tell which of our sites it changed, 
+ * and fall back to scanning the complete board.
+ * 
+ * Computing mobility requires generating legal moves. Callers that already
+ * know the number of legal moves (such as MCTS nodes) should therefore
+ * pass it to evaluate(Context, int), or evaluate(Context, int, double[]).
+ * 
+ * @author Dennis Soemers
+ */
+public class HeuristicEvaluator implements StateEvaluator
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Number of legal moves at which the mobility score of a player is 0.5 */
+	private static final double MOBILITY_SCALE = 10.0;
+	
+	//-------------------------------------------------------------------------
+	
+	/** Weight for material feature */
+	protected final double materialWeight;
+	
+	/** Weight for mobility feature */
+	protected final double mobilityWeight;
+	
+	/** Weight for positional feature */
+	protected final double positionalWeight;
+	
+	/** Data for the game we last evaluated a state of */
+	private volatile GameData gameData = null;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor with default weights
+	 */
+	public HeuristicEvaluator()
+	{
+		this(1.0, 0.5, 0.25);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param materialWeight
+	 * @param mobilityWeight
+	 * @param positionalWeight
+	 */
+	public HeuristicEvaluator
+	(
+		final double materialWeight,
+		final double mobilityWeight,
+		final double positionalWeight
+	)
+	{
+		this.materialWeight = materialWeight;
+		this.mobilityWeight = mobilityWeight;
+		this.positionalWeight = positionalWeight;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	@Override
+	public double[] evaluate(final Context context)
+	{
+		return evaluate(context, -1, computeFeatures(context));
+	}
+	
+	@Override
+	public double[] evaluate(final Context context, final int numLegalMoves)
+	{
+		return evaluate(context, numLegalMoves, computeFeatures(context));
+	}
+	
+	/**
+	 * Features are the number of pieces of every player (at indices 1 to 
+	 * numPlayers), followed by the sum of centralities of the sites of every
+	 * player's pieces (at indices numPlayers + 2 to 2 * numPlayers + 1).
+	 */
+	@Override
+	public double[] computeFeatures(final Context context)
+	{
+		final Game game = context.game();
+		final int numPlayers = game.players().count();
+		final GameData data = gameData(game);
+		
+		// Collect material and positional sums for all players in a single pass over the board
+		final double[] material = new double[numPlayers + 1];
+		final double[] centrality = new double[numPlayers + 1];
+		MaterialCounting.countMaterial
+		(
+			context, data.siteType, data.numSites, numPlayers, 
+			material, data.centrality, centrality
+		);
+		
+		final double[] features = Arrays.copyOf(material, 2 * (numPlayers + 1));
+		System.arraycopy(centrality, 0, features, numPlayers + 1, numPlayers + 1);
+		return features;
+	}
+	
+	@Override
+	public double[] updateFeatures
+	(
+		final double[] parentFeatures, 
+		final Context parentContext, 
+		final Context context
+	)
+	{
+		final Move move = context.trial().lastMove();
+		if (move == null)
+			return computeFeatures(context);
+		
+		final GameData data = gameData(context.game());
+		final List<Action> actions = move.actions();
+		
+		// Collect the (distinct) sites of our type changed by the move
+		final int[] sites = new int[2 * actions.size()];
+		int numSites = 0;
+		for (final Action action : actions)
+		{
+			for (int i = 0; i < 2; ++i)
+			{
+				final int site = (i == 0) ? action.from() : action.to();
+				final SiteType type = (i == 0) ? action.fromType() : action.toType();
+				
+				if (site < 0)
+					continue;
+				
+				if (type != null && type != data.siteType)
+					return computeFeatures(context);	// Can't tell which of our sites this affects
+				
+				if (site >= data.numSites)
+					continue;	// Not on the board (e.g. in a player's hand)
+				
+				boolean seen = false;
+				for (int j = 0; j < numSites; ++j)
+				{
+					if (sites[j] == site)
+					{
+						seen = true;
+						break;
+					}
+				}
+				
+				if (!seen)
+					sites[numSites++] = site;
+			}
+		}
+		
+		// Replace the contributions of those sites in the parent state by their contributions in the new state
+		final int numPlayers = context.game().players().count();
+		final ContainerState parentCs = parentContext.state().containerStates()[0];
+		final ContainerState cs = context.state().containerStates()[0];
+		final double[] features = parentFeatures.clone();
+		for (int i = 0; i < numSites; ++i)
+		{
+			addSite(parentCs, sites[i], data, numPlayers, -1.0, features);
+			addSite(cs, sites[i], data, numPlayers, 1.0, features);
+		}
+		
+		return features;
+	}
+	
+	@Override
+	public double[] evaluate(final Context context, final int numLegalMoves, final double[] features)
+	{
+		final Game game = context.game();
+		final int numPlayers = game.players().count();
+		final double[] utilities = new double[numPlayers + 1];
+		
+		if (numPlayers < 2)
+			return utilities;
+		
+		// Only generate legal moves if the caller doesn't know how many there are, and we need them
+		final int numMoverMoves;
+		if (numLegalMoves >= 0)
+			numMoverMoves = numLegalMoves;
+		else
+			numMoverMoves = (mobilityWeight == 0.0) ? 0 : game.moves(context).moves().size();
+		
+		final double[] material = new double[numPlayers + 1];
+		final double[] centrality = new double[numPlayers + 1];
+		double totalMaterial = 0.0;
+		double totalCentrality = 0.0;
+		for (int p = 1; p <= numPlayers; ++p)
+		{
+			material[p] = features[p];
+			totalMaterial += material[p];
+			
+			// Average centrality of player's pieces
+			if (material[p] > 0.0)
+				centrality[p] = features[numPlayers + 1 + p] / material[p];
+			
+			totalCentrality += centrality[p];
+		}
+		
+		final int mover = context.state().mover();
+		final double moverMobility = numMoverMoves / (numMoverMoves + MOBILITY_SCALE);
+		
+		for (int p = 1; p <= numPlayers; ++p)
+		{
+			final double opponentsMaterial = (totalMaterial - material[p]) / (numPlayers - 1);
+			final double materialScore = relativeScore(material[p], opponentsMaterial);
+			
+			final double opponentsCentrality = (totalCentrality - centrality[p]) / (numPlayers - 1);
+			final double positionalScore = relativeScore(centrality[p], opponentsCentrality);
+			
+			// Only know the mobility of the mover, which is good for the mover and bad for all others
+			final double mobilityScore = (p == mover) ? moverMobility : -moverMobility / (numPlayers - 1);
+			
+			utilities[p] =
+					Math.tanh
+					(
+						materialWeight * materialScore +
+						mobilityWeight * mobilityScore +
+						positionalWeight * positionalScore
+					);
+		}
+		
+		return utilities;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param game
+	 * @return Data for the given game (computed the first time we see the game)
+	 */
+	private GameData gameData(final Game game)
+	{
+		GameData data = gameData;
+		if (data == null || data.game != game)
+		{
+			data = new GameData(game);
+			gameData = data;
+		}
+		return data;
+	}
+	
+	/**
+	 * Adds the contribution of the pieces on a single site to the given 
+	 * features, multiplied by the given sign.
+	 * 
+	 * @param cs
+	 * @param site
+	 * @param data
+	 * @param numPlayers
+	 * @param sign 1.0 to add the contribution, -1.0 to subtract it
+	 * @param features
+	 */
+	private static void addSite
+	(
+		final ContainerState cs,
+		final int site,
+		final GameData data,
+		final int numPlayers,
+		final double sign,
+		final double[] features
+	)
+	{
+		final int who = cs.who(site, data.siteType);
+		if (who > 0 && who <= numPlayers)
+		{
+			final double count = sign * MaterialCounting.pieceCount(cs, site, data.siteType);
+			features[who] += count;
+			features[numPlayers + 1 + who] += count * data.centrality[site];
+		}
+	}
+	
+	/**
+	 * @param own
+	 * @param opponents
+	 * @return Score in [-1, 1] comparing own (non-negative) value to the (non-negative) value of opponents
+	 */
+	private static double relativeScore(final double own, final double opponents)
+	{
+		final double sum = own + opponents;
+		return (sum > 0.0) ? (own - opponents) / sum : 0.0;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Data that only depends on the game, and not on the state
+	 * 
+	 * @author Dennis Soemers
+	 */
+	private static class GameData
+	{
+		
+		/** The game */
+		protected final Game game;
+		
+		/** Type of sites we look at */
+		protected final SiteType siteType;
+		
+		/** Number of sites of that type on the board */
+		protected final int numSites;
+		
+		/** For every site, a value in [0, 1] that is higher for sites closer to the centre */
+		protected final double[] centrality;
+		
+		/**
+		 * Constructor
+		 * @param game
+		 */
+		public GameData(final Game game)
+		{
+			this.game = game;
+			siteType = game.board().defaultSite();
+			
+			final List<? extends TopologyElement> elements = game.board().topology().getGraphElements(siteType);
+			numSites = elements.size();
+			centrality = new double[numSites];
+			
+			double centreRow = 0.0;
+			double centreCol = 0.0;
+			for (final TopologyElement element : elements)
+			{
+				centreRow += element.row();
+				centreCol += element.col();
+			}
+			centreRow /= Math.max(1, numSites);
+			centreCol /= Math.max(1, numSites);
+			
+			final double[] distances = new double[numSites];
+			double maxDistance = 0.0;
+			for (int site = 0; site < numSites; ++site)
+			{
+				final TopologyElement element = elements.get(site);
+				final double dRow = element.row() - centreRow;
+				final double dCol = element.col() - centreCol;
+				distances[site] = Math.sqrt(dRow * dRow + dCol * dCol);
+				maxDistance = Math.max(maxDistance, distances[site]);
+			}
+			
+			for (int site = 0; site < numSites; ++site)
+			{
+				centrality[site] = (maxDistance == 0.0) ? 1.0 : 1.0 - distances[site] / maxDistance;
+			}
+		}
+		
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
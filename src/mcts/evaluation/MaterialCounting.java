@@ -0,0 +1,88 @@
+package mcts.evaluation;
+
+import game.types.board.SiteType;
+import other.context.Context;
+import other.state.container.ContainerState;
+
+/**
+ * Counts the pieces every player has on the board, shared by the state
+ * evaluators in this package. Pieces are read directly from the board's
+ * container state, site by site, without copying any of its data.
+ * 
+ * @author Dennis Soemers
+ */
+final class MaterialCounting
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 */
+	private MaterialCounting()
+	{
+		// do not instantiate
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Adds the number of pieces of every player on the board to the given
+	 * material array. If siteWeights is not null, also adds the number of
+	 * pieces of every player multiplied by the weights of their sites to the
+	 * given weightedMaterial array.
+	 * 
+	 * @param context
+	 * @param siteType Type of sites we look at
+	 * @param numSites Number of sites of that type on the board
+	 * @param numPlayers
+	 * @param material Array of size numPlayers + 1, indexed by player
+	 * @param siteWeights Weight for every site (may be null)
+	 * @param weightedMaterial Array of size numPlayers + 1, indexed by player (may be null if siteWeights is null)
+	 * @return Total number of pieces of all players
+	 */
+	static double countMaterial
+	(
+		final Context context,
+		final SiteType siteType,
+		final int numSites,
+		final int numPlayers,
+		final double[] material,
+		final double[] siteWeights,
+		final double[] weightedMaterial
+	)
+	{
+		final ContainerState cs = context.state().containerStates()[0];
+		double totalMaterial = 0.0;
+		
+		for (int site = 0; site < numSites; ++site)
+		{
+			final int who = cs.who(site, siteType);
+			if (who > 0 && who <= numPlayers)
+			{
+				final int count = pieceCount(cs, site, siteType);
+				material[who] += count;
+				totalMaterial += count;
+				
+				if (siteWeights != null)
+					weightedMaterial[who] += count * siteWeights[site];
+			}
+		}
+		
+		return totalMaterial;
+	}
+	
+	/**
+	 * @param cs
+	 * @param site A site owned by a player
+	 * @param siteType
+	 * @return Number of pieces on the given site (at least 1)
+	 */
+	static int pieceCount(final ContainerState cs, final int site, final SiteType siteType)
+	{
+		return Math.max(1, cs.count(site, siteType));
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
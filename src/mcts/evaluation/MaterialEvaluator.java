@@ -0,0 +1,53 @@
+package mcts.evaluation;
+
+import game.Game;
+import game.types.board.SiteType;
+import other.context.Context;
+
+/**
+ * A very simple state evaluator, which only counts the pieces every player
+ * has on the board. The utility for a player is the difference between
+ * their number of pieces and the average number of pieces of their
+ * opponents, divided by the sum of those two numbers.
+ * 
+ * Pieces are read directly from the board's container state, site by site,
+ * without copying any of its data.
+ * 
+ * @author Dennis Soemers
+ */
+public class MaterialEvaluator implements StateEvaluator
+{
+	
+	//-------------------------------------------------------------------------
+	
+	@Override
+	public double[] evaluate(final Context context)
+	{
+		final Game game = context.game();
+		final int numPlayers = game.players().count();
+		final SiteType siteType = game.board().defaultSite();
+		final int numSites = game.board().topology().getGraphElements(siteType).size();
+		
+		final double[] material = new double[numPlayers + 1];
+		final double totalMaterial = 
+				MaterialCounting.countMaterial(context, siteType, numSites, numPlayers, material, null, null);
+		
+		final double[] utilities = new double[numPlayers + 1];
+		if (numPlayers < 2)
+			return utilities;
+		
+		for (int p = 1; p <= numPlayers; ++p)
+		{
+			final double opponentsMaterial = (totalMaterial - material[p]) / (numPlayers - 1);
+			final double sum = material[p] + opponentsMaterial;
+			
+			if (sum > 0.0)
+				utilities[p] = (material[p] - opponentsMaterial) / sum;
+		}
+		
+		return utilities;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
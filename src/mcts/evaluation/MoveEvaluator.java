@@ -0,0 +1,25 @@
+package mcts.evaluation;
+
+import other.context.Context;
+import other.move.Move;
+
+/**
+ * Interface for cheap heuristic evaluations of moves, which our example
+ * MCTS agents can use to decide which moves to expand first. Unlike a
+ * StateEvaluator, a MoveEvaluator should not need to apply the move.
+ * 
+ * Implementations may be called by multiple threads at once.
+ * 
+ * @author Dennis Soemers
+ */
+public interface MoveEvaluator
+{
+	
+	/**
+	 * @param context Game state in which the move is legal (must not be modified)
+	 * @param move
+	 * @return Estimated value of the move for its mover (higher is better)
+	 */
+	public double evaluateMove(final Context context, final Move move);
+	
+}
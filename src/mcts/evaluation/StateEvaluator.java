@@ -0,0 +1,90 @@
+package mcts.evaluation;
+
+import other.context.Context;
+
+/**
+ * Interface for heuristic evaluations of (non-terminal) game states, which
+ * our example MCTS agents can use instead of (or at the end of truncated)
+ * playouts.
+ * 
+ * Implementations may be called by multiple threads at once.
+ * 
+ * @author Dennis Soemers
+ */
+public interface StateEvaluator
+{
+	
+	/**
+	 * @param context Game state to evaluate (must not be modified)
+	 * @return Estimated utilities for all players (indexed from 1), all in [-1, 1]
+	 */
+	public double[] evaluate(final Context context);
+	
+	/**
+	 * Variant of evaluate() for callers that already know the number of legal
+	 * moves in the given state, such that evaluators that use it do not need
+	 * to generate legal moves again.
+	 * 
+	 * @param context Game state to evaluate (must not be modified)
+	 * @param numLegalMoves Number of legal moves in the given state
+	 * @return Estimated utilities for all players (indexed from 1), all in [-1, 1]
+	 */
+	public default double[] evaluate(final Context context, final int numLegalMoves)
+	{
+		return evaluate(context);
+	}
+	
+	/**
+	 * Computes features of the given state from which this evaluator can 
+	 * compute its evaluation with evaluate(Context, int, double[]). Callers 
+	 * that evaluate many closely related states (such as MCTS nodes) can 
+	 * store these features, and derive the features of a successor state 
+	 * from them with updateFeatures(), rather than having the evaluator 
+	 * compute everything from scratch in every state.
+	 * 
+	 * @param context Game state (must not be modified)
+	 * @return Features of the state, or null if this evaluator does not use features
+	 */
+	public default double[] computeFeatures(final Context context)
+	{
+		return null;
+	}
+	
+	/**
+	 * Derives features of a state from the features of its predecessor 
+	 * state, and the last move applied in the new state. Evaluators that can
+	 * not derive the effects of that move fall back to computeFeatures().
+	 * 
+	 * @param parentFeatures Features of the state before the last move (must not be modified)
+	 * @param parentContext Game state before the last move (must not be modified)
+	 * @param context Game state after the last move (must not be modified)
+	 * @return Features of the state after the last move, or null if this evaluator does not use features
+	 */
+	public default double[] updateFeatures
+	(
+		final double[] parentFeatures, 
+		final Context parentContext, 
+		final Context context
+	)
+	{
+		return computeFeatures(context);
+	}
+	
+	/**
+	 * Variant of evaluate() for callers that already have the features of 
+	 * the given state (as computed by computeFeatures() or updateFeatures()).
+	 * 
+	 * @param context Game state to evaluate (must not be modified)
+	 * @param numLegalMoves Number of legal moves in the given state (-1 if unknown)
+	 * @param features Features of the given state (null if this evaluator does not use features)
+	 * @return Estimated utilities for all players (indexed from 1), all in [-1, 1]
+	 */
+	public default double[] evaluate(final Context context, final int numLegalMoves, final double[] features)
+	{
+		if (numLegalMoves < 0)
+			return evaluate(context);
+		
+		return evaluate(context, numLegalMoves);
+	}
+
+}
@@ -0,0 +1,69 @@
+package mcts.playout;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import mcts.evaluation.StateEvaluator;
+import other.RankUtils;
+import other.context.Context;
+
+/**
+ * Playout policy that plays uniformly random moves, but stops after a
+ * maximum number of moves. If the game is not over by then, the state we
+ * ended up in is evaluated by a heuristic state evaluator.
+ * 
+ * In long games (like Amazons), this makes playouts much cheaper, and
+ * the heuristic evaluation of a state after a few random moves is often
+ * more informative than the outcome of a long sequence of random moves.
+ * 
+ * @author Dennis Soemers
+ */
+public class DepthCappedPlayout implements PlayoutPolicy
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Maximum number of moves per playout */
+	protected final int maxNumMoves;
+	
+	/** Evaluates states in which we stop before the game is over */
+	protected final StateEvaluator evaluator;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param maxNumMoves Maximum number of moves per playout
+	 * @param evaluator Evaluates states in which we stop before the game is over
+	 */
+	public DepthCappedPlayout(final int maxNumMoves, final StateEvaluator evaluator)
+	{
+		this.maxNumMoves = maxNumMoves;
+		this.evaluator = evaluator;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	@Override
+	public double[] runPlayout(final Context context)
+	{
+		context.game().playout
+		(
+			context,
+			null,
+			-1.0,
+			null,
+			0,
+			maxNumMoves,
+			ThreadLocalRandom.current()
+		);
+		
+		if (context.trial().over())
+			return RankUtils.utilities(context);
+		
+		return evaluator.evaluate(context);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -0,0 +1,208 @@
+package mcts.playout;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import main.collections.FastArrayList;
+import mcts.evaluation.StateEvaluator;
+import other.RankUtils;
+import other.context.Context;
+import other.move.Move;
+import other.playout.PlayoutMoveSelector;
+
+/**
+ * Epsilon-greedy playout policy with respect to a heuristic state evaluator.
+ * With probability epsilon we play a uniformly random move. Otherwise, we
+ * sample a small number of (really legal) candidate moves, evaluate the
+ * state resulting from each of them, and play the one that is best for the
+ * mover.
+ * 
+ * Candidates are sampled with a partial Fisher-Yates shuffle of indices
+ * into the list of moves, in a per-thread buffer that is restored after
+ * every step. A step therefore only costs time for the moves it samples,
+ * rather than for the complete list of moves, and does not allocate.
+ * 
+ * Evaluating a candidate requires a copy of the game state, which is why
+ * we only evaluate a limited number of candidates, and why playouts are
+ * capped at a maximum number of moves (after which the final state is
+ * evaluated by the same evaluator).
+ * 
+ * @author Dennis Soemers
+ */
+public class EpsilonGreedyPlayout extends PlayoutMoveSelector implements PlayoutPolicy
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** 
+	 * Per-thread buffer of indices into lists of moves. In between calls to
+	 * selectMove(), every entry equals its own index.
+	 */
+	private static final ThreadLocal<int[]> INDEX_BUFFERS = 
+			ThreadLocal.withInitial(() -> {return identity(64);});
+	
+	/** Per-thread buffer of the positions drawn from INDEX_BUFFERS in a single call to selectMove() */
+	private static final ThreadLocal<int[]> DRAWN_BUFFERS = 
+			ThreadLocal.withInitial(() -> {return new int[64];});
+	
+	//-------------------------------------------------------------------------
+	
+	/** Probability of playing a uniformly random move */
+	protected final double epsilon;
+	
+	/** Number of candidate moves we evaluate per greedy step */
+	protected final int numCandidates;
+	
+	/** Maximum number of moves per playout (-1 for no limit) */
+	protected final int maxNumMoves;
+	
+	/** Our heuristic state evaluator */
+	protected final StateEvaluator evaluator;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param epsilon Probability of playing a uniformly random move
+	 * @param numCandidates Number of candidate moves we evaluate per greedy step
+	 * @param maxNumMoves Maximum number of moves per playout (-1 for no limit)
+	 * @param evaluator Heuristic state evaluator
+	 */
+	public EpsilonGreedyPlayout
+	(
+		final double epsilon,
+		final int numCandidates,
+		final int maxNumMoves,
+		final StateEvaluator evaluator
+	)
+	{
+		this.epsilon = epsilon;
+		this.numCandidates = numCandidates;
+		this.maxNumMoves = maxNumMoves;
+		this.evaluator = evaluator;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	@Override
+	public double[] runPlayout(final Context context)
+	{
+		context.game().playout
+		(
+			context,
+			null,
+			-1.0,
+			this,
+			-1,
+			maxNumMoves,
+			ThreadLocalRandom.current()
+		);
+		
+		if (context.trial().over())
+			return RankUtils.utilities(context);
+		
+		return evaluator.evaluate(context);
+	}
+	
+	@Override
+	public Move selectMove
+	(
+		final Context context,
+		final FastArrayList<Move> maybeLegalMoves,
+		final int p,
+		final IsMoveReallyLegal isMoveReallyLegal
+	)
+	{
+		final ThreadLocalRandom rng = ThreadLocalRandom.current();
+		final int numMoves = maybeLegalMoves.size();
+		
+		int[] indices = INDEX_BUFFERS.get();
+		if (indices.length < numMoves)
+		{
+			indices = identity(Math.max(numMoves, 2 * indices.length));
+			INDEX_BUFFERS.set(indices);
+		}
+		
+		int[] drawn = DRAWN_BUFFERS.get();
+		if (drawn.length < numMoves)
+		{
+			drawn = new int[indices.length];
+			DRAWN_BUFFERS.set(drawn);
+		}
+		
+		Move bestMove = null;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		int numEvaluated = 0;
+		int numRemaining = numMoves;
+		
+		try
+		{
+			while (numEvaluated < numCandidates && numRemaining > 0)
+			{
+				// Draw a random index that we did not draw yet, and move it to the end of the remaining range
+				final int pos = rng.nextInt(numRemaining);
+				final Move move = maybeLegalMoves.get(indices[pos]);
+				drawn[numMoves - numRemaining] = pos;
+				--numRemaining;
+				indices[pos] = indices[numRemaining];
+				indices[numRemaining] = -1;
+				
+				if (!isMoveReallyLegal.checkMove(move))
+					continue;
+				
+				final Context copy = new Context(context);
+				copy.game().apply(copy, move);
+				++numEvaluated;
+				
+				final double value =
+						copy.trial().over() ? RankUtils.utilities(copy)[p] : evaluator.evaluate(copy)[p];
+				
+				if (value > bestValue)
+				{
+					bestValue = value;
+					bestMove = move;
+				}
+			}
+		}
+		finally
+		{
+			// Only positions we drew from, and the end of the range, were changed
+			for (int i = 0; i < numMoves - numRemaining; ++i)
+			{
+				indices[drawn[i]] = drawn[i];
+			}
+			
+			for (int i = numRemaining; i < numMoves; ++i)
+			{
+				indices[i] = i;
+			}
+		}
+		
+		return bestMove;
+	}
+	
+	@Override
+	public boolean wantsPlayUniformRandomMove()
+	{
+		return ThreadLocalRandom.current().nextDouble() < epsilon;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param size
+	 * @return Array of given size in which every entry equals its own index
+	 */
+	private static int[] identity(final int size)
+	{
+		final int[] array = new int[size];
+		for (int i = 0; i < size; ++i)
+		{
+			array[i] = i;
+		}
+		return array;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -0,0 +1,205 @@
+package mcts.playout;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import main.collections.FastArrayList;
+import mcts.evaluation.MoveEvaluator;
+import other.RankUtils;
+import other.context.Context;
+import other.move.Move;
+import other.playout.PlayoutMoveSelector;
+import other.trial.Trial;
+import utils.MoveKeys;
+
+/**
+ * Move-Average Sampling Technique (MAST) playout policy. For every move
+ * (identified by its mover, from-position and to-position), we keep track
+ * of the average utility obtained by its mover in all playouts in which
+ * that move was played. Playouts are epsilon-greedy with respect to these
+ * averages: with probability epsilon we play a uniformly random move, and
+ * otherwise we play the move with the highest average. Selecting a move 
+ * takes a single pass over the legal moves, and does not allocate memory.
+ * 
+ * Statistics are stored in primitive arrays indexed by a hash of the
+ * move, without any collision handling (moves that collide simply share
+ * statistics). They persist across searches until clear() is called.
+ * Updates are not synchronised; if multiple threads run playouts at once,
+ * some updates may occasionally be lost, which does not matter for such
+ * rough statistics. Moves with more than one mover (for instance, combined
+ * moves in simultaneous-move games) are not tracked.
+ * 
+ * The same averages can be used as a MoveEvaluator, for instance to decide
+ * which moves ExampleUCT should expand first.
+ * 
+ * @author Dennis Soemers
+ */
+public class MASTPlayout extends PlayoutMoveSelector implements PlayoutPolicy, MoveEvaluator
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Probability of playing a uniformly random move */
+	protected final double epsilon;
+	
+	/** Mask to extract an index in our tables from a move key */
+	private final int mask;
+	
+	/** For every move key, the sum of utilities obtained by the mover */
+	private final double[] scoreSums;
+	
+	/** For every move key, the number of times the move was played */
+	private final int[] visitCounts;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param epsilon Probability of playing a uniformly random move
+	 * @param numBits Our tables will have 2^numBits entries
+	 */
+	public MASTPlayout(final double epsilon, final int numBits)
+	{
+		this.epsilon = epsilon;
+		this.mask = (1 << numBits) - 1;
+		this.scoreSums = new double[1 << numBits];
+		this.visitCounts = new int[1 << numBits];
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	@Override
+	public double[] runPlayout(final Context context)
+	{
+		final Trial trial = context.trial();
+		final int numMovesBefore = trial.numMoves();
+		
+		context.game().playout
+		(
+			context,
+			null,
+			-1.0,
+			this,
+			-1,
+			-1,
+			ThreadLocalRandom.current()
+		);
+		
+		final double[] utilities = RankUtils.utilities(context);
+		
+		// Update statistics for all moves played in this playout
+		final int numMovesAfter = trial.numMoves();
+		for (int i = numMovesBefore; i < numMovesAfter; ++i)
+		{
+			final Move move = trial.getMove(i);
+			final int mover = move.mover();
+			
+			if (mover > 0 && mover < utilities.length)
+			{
+				final int key = moveKey(move);
+				scoreSums[key] += utilities[mover];
+				visitCounts[key] += 1;
+			}
+		}
+		
+		return utilities;
+	}
+	
+	@Override
+	public Move selectMove
+	(
+		final Context context,
+		final FastArrayList<Move> maybeLegalMoves,
+		final int p,
+		final IsMoveReallyLegal isMoveReallyLegal
+	)
+	{
+		final int numMoves = maybeLegalMoves.size();
+		final ThreadLocalRandom rng = ThreadLocalRandom.current();
+		
+		// Find the move with the highest average in a single pass, with random tie-breaking
+		int bestIdx = -1;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		int numBestFound = 0;
+		
+		for (int i = 0; i < numMoves; ++i)
+		{
+			final int key = moveKey(maybeLegalMoves.get(i));
+			final int visitCount = visitCounts[key];
+			final double value = (visitCount == 0) ? 0.0 : scoreSums[key] / visitCount;
+			
+			if (value > bestValue)
+			{
+				bestValue = value;
+				bestIdx = i;
+				numBestFound = 1;
+			}
+			else if
+			(
+				value == bestValue &&
+				rng.nextInt() % ++numBestFound == 0
+			)
+			{
+				// this case implements random tie-breaking
+				bestIdx = i;
+			}
+		}
+		
+		if (bestIdx < 0)
+			return null;
+		
+		final Move bestMove = maybeLegalMoves.get(bestIdx);
+		if (isMoveReallyLegal.checkMove(bestMove))
+			return bestMove;
+		
+		// The greedy move is not really legal (rare), so we fall back to the first 
+		// legal move from a random starting point, rather than trying the next best
+		final int start = rng.nextInt(numMoves);
+		for (int i = 0; i < numMoves; ++i)
+		{
+			final Move move = maybeLegalMoves.get((start + i) % numMoves);
+			if (move != bestMove && isMoveReallyLegal.checkMove(move))
+				return move;
+		}
+		
+		return null;
+	}
+	
+	@Override
+	public boolean wantsPlayUniformRandomMove()
+	{
+		return ThreadLocalRandom.current().nextDouble() < epsilon;
+	}
+	
+	@Override
+	public double evaluateMove(final Context context, final Move move)
+	{
+		final int key = moveKey(move);
+		final int visitCount = visitCounts[key];
+		return (visitCount == 0) ? 0.0 : scoreSums[key] / visitCount;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Removes all statistics
+	 */
+	public void clear()
+	{
+		Arrays.fill(scoreSums, 0.0);
+		Arrays.fill(visitCounts, 0);
+	}
+	
+	/**
+	 * @param move
+	 * @return Index in our tables for the given move
+	 */
+	private int moveKey(final Move move)
+	{
+		return MoveKeys.index(MoveKeys.key(move), mask);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -0,0 +1,26 @@
+package mcts.playout;
+
+import other.context.Context;
+
+/**
+ * Interface for playout policies used by our example MCTS agents. A playout
+ * policy plays moves from a given game state (until the game is over, or
+ * until it decides to stop), and returns estimated utilities for the state
+ * it ends up in.
+ * 
+ * Implementations may be called by multiple threads at once.
+ * 
+ * @author Dennis Soemers
+ */
+public interface PlayoutPolicy
+{
+	
+	/**
+	 * Runs a playout from the given game state.
+	 * 
+	 * @param context Game state to start from (will be modified!)
+	 * @return Utilities for all players (indexed from 1), all in [-1, 1]
+	 */
+	public double[] runPlayout(final Context context);
+	
+}
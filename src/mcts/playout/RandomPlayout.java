@@ -0,0 +1,38 @@
+package mcts.playout;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import other.RankUtils;
+import other.context.Context;
+
+/**
+ * Standard playout policy: plays uniformly random moves until the game
+ * is over.
+ * 
+ * @author Dennis Soemers
+ */
+public class RandomPlayout implements PlayoutPolicy
+{
+	
+	//-------------------------------------------------------------------------
+	
+	@Override
+	public double[] runPlayout(final Context context)
+	{
+		context.game().playout
+		(
+			context,
+			null,
+			-1.0,
+			null,
+			0,
+			-1,
+			ThreadLocalRandom.current()
+		);
+		
+		return RankUtils.utilities(context);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
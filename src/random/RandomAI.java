@@ -7,11 +7,13 @@ import main.collections.FastArrayList;
 import other.AI;
 import other.context.Context;
 import other.move.Move;
-import utils.AIUtils;
 
 /**
  * Example third-party implementation of a random AI for Ludii
  * 
+ * See RandomPlayoutEngine for running large numbers of (seeded) playouts 
+ * with the same policy in parallel.
+ * 
  * @author Dennis Soemers
  */
 public class RandomAI extends AI
@@ -44,15 +46,33 @@ public class RandomAI extends AI
 		final int maxDepth
 	)
 	{
-		FastArrayList<Move> legalMoves = game.moves(context).moves();
+		final FastArrayList<Move> legalMoves = game.moves(context).moves();
+		final ThreadLocalRandom rng = ThreadLocalRandom.current();
+		
+		if (game.isAlternatingMoveGame())
+			return legalMoves.get(rng.nextInt(legalMoves.size()));
 		
 		// If we're playing a simultaneous-move game, some of the legal moves may be 
-		// for different players. Extract only the ones that we can choose.
-		if (!game.isAlternatingMoveGame())
-			legalMoves = AIUtils.extractMovesForMover(legalMoves, player);
+		// for different players. Rather than extracting the ones that we can choose
+		// into a new list, we count them, and then pick one by its rank among them
+		// (this needs only one random number, rather than one per move as in reservoir sampling)
+		final int numMoves = legalMoves.size();
+		int numOwnMoves = 0;
+		for (int i = 0; i < numMoves; ++i)
+		{
+			if (legalMoves.get(i).mover() == player)
+				++numOwnMoves;
+		}
+		
+		int r = rng.nextInt(numOwnMoves);
+		for (int i = 0; i < numMoves; ++i)
+		{
+			final Move move = legalMoves.get(i);
+			if (move.mover() == player && r-- == 0)
+				return move;
+		}
 		
-		final int r = ThreadLocalRandom.current().nextInt(legalMoves.size());
-		return legalMoves.get(r);
+		return null;
 	}
 	
 	@Override
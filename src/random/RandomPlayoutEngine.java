@@ -0,0 +1,419 @@
+package random;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.commons.rng.core.source64.SplitMix64;
+
+import game.Game;
+import other.RankUtils;
+import other.context.Context;
+import other.trial.Trial;
+
+/**
+ * Runs large numbers of random playouts of a game in parallel, and collects
+ * statistics about their outcomes and lengths. Playouts follow the same
+ * policy as RandomAI (every player picks uniformly among its legal moves),
+ * but are run through Game.playout(), which is much faster than asking an
+ * AI for every move.
+ * 
+ * Games are split into chunks over a fork-join pool. Every worker thread
+ * owns a single Trial and Context, which it reuses for all its games by
+ * calling game.start() (rather than allocating new objects for every game).
+ * 
+ * Playout i uses seeds derived from the engine's seed and i only, with the
+ * SplitMix64 mixing function (so seeds of different playouts are
+ * effectively independent). Its results therefore do not depend on the
+ * number of worker threads, or on which worker happens to run it, and
+ * running the same number of playouts with the same seed twice gives
+ * exactly the same statistics.
+ * 
+ * @author Dennis Soemers
+ */
+public class RandomPlayoutEngine
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Number of consecutive playouts run by a single fork-join task */
+	private static final int CHUNK_SIZE = 64;
+	
+	/** Increment of SplitMix64's state per generated number ("golden gamma") */
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+	
+	//-------------------------------------------------------------------------
+	
+	/** The game we run playouts for */
+	protected final Game game;
+	
+	/** Seed from which seeds of all playouts are derived */
+	protected final long seed;
+	
+	/** Context (with trial) owned by each worker thread, reused for all its playouts */
+	private final ThreadLocal<Context> workerContexts;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param game
+	 * @param seed
+	 */
+	public RandomPlayoutEngine(final Game game, final long seed)
+	{
+		this.game = game;
+		this.seed = seed;
+		this.workerContexts = ThreadLocal.withInitial(() -> {return new Context(game, new Trial(game));});
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Runs the given number of random playouts, spread over the given number
+	 * of worker threads.
+	 * 
+	 * @param numPlayouts
+	 * @param numWorkers
+	 * @return Statistics of all playouts
+	 */
+	public Statistics run(final int numPlayouts, final int numWorkers)
+	{
+		final ForkJoinPool pool = new ForkJoinPool(numWorkers);
+		
+		try
+		{
+			final long startTime = System.nanoTime();
+			final Statistics statistics = pool.invoke(new PlayoutTask(0, numPlayouts));
+			statistics.durationNanos = System.nanoTime() - startTime;
+			return statistics;
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Runs a single random playout, in the context owned by the calling thread.
+	 * 
+	 * @param playoutIdx
+	 * @param statistics Statistics to which we add the playout's results
+	 */
+	void runPlayout(final int playoutIdx, final Statistics statistics)
+	{
+		final Context context = workerContexts.get();
+		final long playoutSeed = mix64(seed + (playoutIdx + 1) * GOLDEN_GAMMA);
+		
+		// Seed the game's own RNG (used for stochastic elements of the game), then start the game
+		context.rng().restoreState(new SplitMix64(Long.valueOf(playoutSeed)).saveState());
+		game.start(context);
+		
+		// Separately seeded RNG for the moves we select
+		final Random moveRNG = new Random(mix64(playoutSeed));
+		game.playout(context, null, -1.0, null, 0, -1, moveRNG);
+		
+		statistics.addPlayout(context.trial().numMoves(), RankUtils.utilities(context));
+	}
+	
+	/**
+	 * The mixing function of SplitMix64
+	 * 
+	 * @param z
+	 * @return Mixed bits of z
+	 */
+	private static long mix64(final long z)
+	{
+		long x = z;
+		x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+		x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+		return x ^ (x >>> 31);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Fork-join task that runs a range of playouts, splitting it in halves
+	 * until ranges are no larger than CHUNK_SIZE.
+	 * 
+	 * @author Dennis Soemers
+	 */
+	private class PlayoutTask extends RecursiveTask<Statistics>
+	{
+		
+		/** */
+		private static final long serialVersionUID = 1L;
+		
+		/** First playout index (inclusive) */
+		private final int from;
+		
+		/** Last playout index (exclusive) */
+		private final int to;
+		
+		/**
+		 * Constructor
+		 * @param from
+		 * @param to
+		 */
+		public PlayoutTask(final int from, final int to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected Statistics compute()
+		{
+			if (to - from <= CHUNK_SIZE)
+			{
+				final Statistics statistics = new Statistics(game.players().count());
+				for (int i = from; i < to; ++i)
+				{
+					runPlayout(i, statistics);
+				}
+				return statistics;
+			}
+			
+			final int mid = (from + to) >>> 1;
+			final PlayoutTask left = new PlayoutTask(from, mid);
+			left.fork();
+			
+			final Statistics statistics = new PlayoutTask(mid, to).compute();
+			statistics.merge(left.join());
+			return statistics;
+		}
+		
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Aggregated statistics of random playouts: outcomes per player, and a
+	 * histogram of playout lengths (numbers of moves in trials, which may
+	 * include moves that set up the initial position).
+	 * 
+	 * @author Dennis Soemers
+	 */
+	public static class Statistics
+	{
+		
+		/** Number of playouts */
+		protected long numPlayouts = 0L;
+		
+		/** Per player (indexed from 1), number of playouts won */
+		protected final long[] wins;
+		
+		/** Per player (indexed from 1), number of playouts that were neither won nor lost */
+		protected final long[] draws;
+		
+		/** Per player (indexed from 1), number of playouts lost */
+		protected final long[] losses;
+		
+		/** Per player (indexed from 1), sum of utilities */
+		protected final double[] sumUtilities;
+		
+		/** For every length, the number of playouts of that length (grown as needed) */
+		protected long[] lengthCounts = new long[256];
+		
+		/** Sum of lengths of all playouts */
+		protected long sumLengths = 0L;
+		
+		/** Sum of squared lengths of all playouts */
+		protected double sumSquaredLengths = 0.0;
+		
+		/** Shortest playout */
+		protected int minLength = Integer.MAX_VALUE;
+		
+		/** Longest playout */
+		protected int maxLength = 0;
+		
+		/** Wall-clock duration of the run that produced these statistics */
+		protected long durationNanos = 0L;
+		
+		/**
+		 * Constructor
+		 * @param numPlayers
+		 */
+		public Statistics(final int numPlayers)
+		{
+			wins = new long[numPlayers + 1];
+			draws = new long[numPlayers + 1];
+			losses = new long[numPlayers + 1];
+			sumUtilities = new double[numPlayers + 1];
+		}
+		
+		/**
+		 * Records a single playout
+		 * @param length Number of moves in the playout's trial
+		 * @param utilities Utilities of all players (indexed from 1)
+		 */
+		public void addPlayout(final int length, final double[] utilities)
+		{
+			++numPlayouts;
+			
+			for (int p = 1; p < wins.length; ++p)
+			{
+				if (utilities[p] >= 1.0)
+					++wins[p];
+				else if (utilities[p] <= -1.0)
+					++losses[p];
+				else
+					++draws[p];
+				
+				sumUtilities[p] += utilities[p];
+			}
+			
+			if (length >= lengthCounts.length)
+				lengthCounts = Arrays.copyOf(lengthCounts, Math.max(length + 1, 2 * lengthCounts.length));
+			
+			++lengthCounts[length];
+			sumLengths += length;
+			sumSquaredLengths += (double) length * length;
+			minLength = Math.min(minLength, length);
+			maxLength = Math.max(maxLength, length);
+		}
+		
+		/**
+		 * Adds all statistics from the other object to this one
+		 * @param other
+		 */
+		public void merge(final Statistics other)
+		{
+			numPlayouts += other.numPlayouts;
+			
+			for (int p = 1; p < wins.length; ++p)
+			{
+				wins[p] += other.wins[p];
+				draws[p] += other.draws[p];
+				losses[p] += other.losses[p];
+				sumUtilities[p] += other.sumUtilities[p];
+			}
+			
+			if (other.lengthCounts.length > lengthCounts.length)
+				lengthCounts = Arrays.copyOf(lengthCounts, other.lengthCounts.length);
+			
+			for (int i = 0; i < other.lengthCounts.length; ++i)
+			{
+				lengthCounts[i] += other.lengthCounts[i];
+			}
+			
+			sumLengths += other.sumLengths;
+			sumSquaredLengths += other.sumSquaredLengths;
+			minLength = Math.min(minLength, other.minLength);
+			maxLength = Math.max(maxLength, other.maxLength);
+		}
+		
+		//---------------------------------------------------------------------
+		
+		/**
+		 * @return Number of playouts
+		 */
+		public long numPlayouts()
+		{
+			return numPlayouts;
+		}
+		
+		/**
+		 * @param p
+		 * @return Number of playouts won by given player
+		 */
+		public long wins(final int p)
+		{
+			return wins[p];
+		}
+		
+		/**
+		 * @param p
+		 * @return Number of playouts that given player neither won nor lost
+		 */
+		public long draws(final int p)
+		{
+			return draws[p];
+		}
+		
+		/**
+		 * @param p
+		 * @return Number of playouts lost by given player
+		 */
+		public long losses(final int p)
+		{
+			return losses[p];
+		}
+		
+		/**
+		 * @param p
+		 * @return Average utility of given player
+		 */
+		public double averageUtility(final int p)
+		{
+			return (numPlayouts == 0L) ? 0.0 : sumUtilities[p] / numPlayouts;
+		}
+		
+		/**
+		 * @param length
+		 * @return Number of playouts of given length
+		 */
+		public long lengthCount(final int length)
+		{
+			return (length < lengthCounts.length) ? lengthCounts[length] : 0L;
+		}
+		
+		/**
+		 * @return Shortest playout length
+		 */
+		public int minLength()
+		{
+			return minLength;
+		}
+		
+		/**
+		 * @return Longest playout length
+		 */
+		public int maxLength()
+		{
+			return maxLength;
+		}
+		
+		/**
+		 * @return Average playout length
+		 */
+		public double averageLength()
+		{
+			return (numPlayouts == 0L) ? 0.0 : (double) sumLengths / numPlayouts;
+		}
+		
+		/**
+		 * @return Standard deviation of playout lengths
+		 */
+		public double stdLength()
+		{
+			if (numPlayouts <= 1L)
+				return 0.0;
+			
+			final double mean = averageLength();
+			return Math.sqrt(Math.max(0.0, (sumSquaredLengths - numPlayouts * mean * mean) / (numPlayouts - 1)));
+		}
+		
+		/**
+		 * @return Playouts per second of wall-clock time
+		 */
+		public double playoutsPerSecond()
+		{
+			return (durationNanos == 0L) ? 0.0 : numPlayouts / (durationNanos / 1.0E9);
+		}
+		
+		/**
+		 * @return Moves per second of wall-clock time
+		 */
+		public double movesPerSecond()
+		{
+			return (durationNanos == 0L) ? 0.0 : sumLengths / (durationNanos / 1.0E9);
+		}
+		
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -0,0 +1,192 @@
+package search;
+
+import java.util.Arrays;
+
+import other.move.Move;
+
+/**
+ * A bounded transposition table for alpha-beta search, keyed by the full
+ * (Zobrist) hash of game states. For every state, we store the depth it was
+ * searched to, the value found, whether that value is exact or only a lower
+ * or upper bound, and the best move found (used for move ordering).
+ * 
+ * The table is directly mapped: a key can only be stored in the slot indexed
+ * by its lower bits. An entry is replaced by a new one unless the old entry
+ * was searched deeper and was stored during the current search.
+ * 
+ * Not thread-safe; every search should use its own table.
+ * 
+ * @author Dennis Soemers
+ */
+public class AlphaBetaTranspositionTable
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Returned by find() when a key is not in the table */
+	public static final int NOT_FOUND = -1;
+	
+	/** Flag for entries with exact values */
+	public static final byte EXACT = 0;
+	
+	/** Flag for entries with values that are lower bounds (search failed high) */
+	public static final byte LOWER_BOUND = 1;
+	
+	/** Flag for entries with values that are upper bounds (search failed low) */
+	public static final byte UPPER_BOUND = 2;
+	
+	//-------------------------------------------------------------------------
+	
+	/** Mask to extract a slot index from a key */
+	private final int mask;
+	
+	/** For every slot, the key (full state hash) stored in it */
+	private final long[] keys;
+	
+	/** For every slot, the depth to which its state was searched (-1 for empty slots) */
+	private final int[] depths;
+	
+	/** For every slot, the value of its state */
+	private final double[] values;
+	
+	/** For every slot, whether its value is exact, a lower bound, or an upper bound */
+	private final byte[] flags;
+	
+	/** For every slot, the best move found in its state (may be null) */
+	private final Move[] bestMoves;
+	
+	/** For every slot, the search in which it was last stored */
+	private final int[] ages;
+	
+	/** Counter for searches, used to prefer replacing entries of old searches */
+	private int currentAge = 0;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param numBits The table will have 2^numBits slots
+	 */
+	public AlphaBetaTranspositionTable(final int numBits)
+	{
+		final int numSlots = 1 << numBits;
+		mask = numSlots - 1;
+		keys = new long[numSlots];
+		depths = new int[numSlots];
+		values = new double[numSlots];
+		flags = new byte[numSlots];
+		bestMoves = new Move[numSlots];
+		ages = new int[numSlots];
+		Arrays.fill(depths, -1);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Should be called at the start of every new search
+	 */
+	public void startNewSearch()
+	{
+		++currentAge;
+	}
+	
+	/**
+	 * Removes all entries
+	 */
+	public void clear()
+	{
+		Arrays.fill(depths, -1);
+		Arrays.fill(bestMoves, null);
+	}
+	
+	/**
+	 * @param key
+	 * @return Slot in which the given key is stored, or NOT_FOUND
+	 */
+	public int find(final long key)
+	{
+		final int slot = ((int) (key ^ (key >>> 32))) & mask;
+		if (depths[slot] >= 0 && keys[slot] == key)
+			return slot;
+		
+		return NOT_FOUND;
+	}
+	
+	/**
+	 * @param slot
+	 * @return Depth to which the state in given slot was searched
+	 */
+	public int depth(final int slot)
+	{
+		return depths[slot];
+	}
+	
+	/**
+	 * @param slot
+	 * @return Value of the state in given slot
+	 */
+	public double value(final int slot)
+	{
+		return values[slot];
+	}
+	
+	/**
+	 * @param slot
+	 * @return EXACT, LOWER_BOUND or UPPER_BOUND
+	 */
+	public byte flag(final int slot)
+	{
+		return flags[slot];
+	}
+	
+	/**
+	 * @param slot
+	 * @return Best move found in the state in given slot (may be null)
+	 */
+	public Move bestMove(final int slot)
+	{
+		return bestMoves[slot];
+	}
+	
+	/**
+	 * Stores the result of searching the state with the given key.
+	 * 
+	 * @param key
+	 * @param depth
+	 * @param value
+	 * @param flag EXACT, LOWER_BOUND or UPPER_BOUND
+	 * @param bestMove
+	 */
+	public void store
+	(
+		final long key,
+		final int depth,
+		final double value,
+		final byte flag,
+		final Move bestMove
+	)
+	{
+		final int slot = ((int) (key ^ (key >>> 32))) & mask;
+		final boolean sameKey = (depths[slot] >= 0 && keys[slot] == key);
+		
+		if (!sameKey && depths[slot] > depth && ages[slot] == currentAge)
+		{
+			// Keep the deeper entry from this same search
+			return;
+		}
+		
+		keys[slot] = key;
+		depths[slot] = depth;
+		values[slot] = value;
+		flags[slot] = flag;
+		ages[slot] = currentAge;
+		
+		// Don't forget a best move we already knew if we didn't find a new one
+		if (bestMove != null || !sameKey)
+			bestMoves[slot] = bestMove;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
@@ -0,0 +1,615 @@
+package search;
+
+import java.util.Arrays;
+
+import game.Game;
+import main.collections.FastArrayList;
+import mcts.evaluation.HeuristicEvaluator;
+import mcts.evaluation.StateEvaluator;
+import other.AI;
+import other.RankUtils;
+import other.context.Context;
+import other.move.Move;
+import utils.MoveKeys;
+
+/**
+ * Example alpha-beta agent with iterative deepening, for deterministic
+ * alternating-move games with two players. Values are always computed from
+ * the perspective of the player we're playing as; we maximise in states
+ * where we are the mover, and minimise in all other states (so games in
+ * which a player may move multiple times in a row are handled correctly).
+ * 
+ * We search to depth 1, 2, 3, etc. until we run out of time, reach the
+ * maximum depth, or find that the outcome of the game is known. Moves are
+ * ordered by:
+ * 	1) The best move stored in the transposition table for the state
+ * 	(typically found by the previous iteration).
+ * 	2) Killer moves: moves that recently caused cutoffs at the same ply.
+ * 	3) History heuristic: moves that caused cutoffs (anywhere) in the
+ * 	past, weighted by the depth of the searches in which they did so.
+ * 
+ * The transposition table is keyed by the full (Zobrist) hash that Ludii
+ * maintains for every state. Non-terminal states at the depth limit are
+ * evaluated by a StateEvaluator. Moves are applied to copies of Contexts,
+ * as in the MCTS examples, rather than undoing them afterwards; the public
+ * API this project builds against does not offer a general undo.
+ * 
+ * @author Dennis Soemers
+ */
+public class ExampleAlphaBeta extends AI
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Absolute value of a won or lost terminal state (heuristic evaluations are always smaller) */
+	private static final double WIN_VALUE = 2.0;
+	
+	/** Terminal values shrink by this much per ply, such that we prefer quick wins and slow losses */
+	private static final double PLY_PENALTY = 0.001;
+	
+	/** We never search deeper than this many plies */
+	private static final int MAX_SEARCH_DEPTH = 256;
+	
+	/** We check whether we should stop searching once every this many nodes (must be power of 2) */
+	private static final int CHECK_INTERVAL = 64;
+	
+	/** Our history table will have 2^HISTORY_NUM_BITS entries */
+	private static final int HISTORY_NUM_BITS = 16;
+	
+	/** When an entry in our history table exceeds this, we halve all of them */
+	private static final int MAX_HISTORY_SCORE = 1 << 20;
+	
+	/** Move ordering score for the best move stored in the transposition table */
+	private static final int TT_MOVE_SCORE = 1 << 30;
+	
+	/** Move ordering score for killer moves (higher than any history score) */
+	private static final int KILLER_MOVE_SCORE = 1 << 29;
+	
+	//-------------------------------------------------------------------------
+	
+	/** Our player index */
+	protected int player = -1;
+	
+	/** Evaluator for non-terminal states at the depth limit */
+	protected StateEvaluator evaluator = new HeuristicEvaluator();
+	
+	/** Our transposition table will have 2^ttNumBits entries (0 to disable) */
+	protected int ttNumBits = 20;
+	
+	/** Our transposition table (null if not used, or not yet allocated) */
+	protected AlphaBetaTranspositionTable transpositionTable = null;
+	
+	/** For every ply, the two most recent distinct moves that caused cutoffs at that ply */
+	private final Move[][] killerMoves = new Move[MAX_SEARCH_DEPTH + 1][2];
+	
+	/** History heuristic scores, indexed by hashes of moves */
+	private final int[] historyScores = new int[1 << HISTORY_NUM_BITS];
+	
+	/** System.nanoTime() at which we must stop searching */
+	private long stopTime;
+	
+	/** Set to true when we run out of time or are interrupted in the middle of an iteration */
+	private boolean searchAborted;
+	
+	/** Set to true when the current iteration evaluated a non-terminal state at the depth limit */
+	private boolean reachedDepthLimit;
+	
+	/** Number of nodes visited in the current search */
+	private long numNodes;
+	
+	/** Value of the best root move found by the last completed iteration */
+	private double lastValue = 0.0;
+	
+	/** Depth of the last completed iteration of our last search */
+	private int lastCompletedDepth = 0;
+	
+	/** Number of nodes visited in our last search */
+	private long lastNumNodes = 0L;
+	
+	/** Duration of our last search, in nanoseconds */
+	private long lastDurationNanos = 0L;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 */
+	public ExampleAlphaBeta()
+	{
+		this.friendlyName = "Example Alpha-Beta";
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	@Override
+	public Move selectAction
+	(
+		final Game game,
+		final Context context,
+		final double maxSeconds,
+		final int maxIterations,
+		final int maxDepth
+	)
+	{
+		// We'll respect any limitations on max seconds and max depth (don't care about max iterations)
+		final long startTime = System.nanoTime();
+		stopTime = (maxSeconds > 0.0) ? startTime + (long) (maxSeconds * 1000000000L) : Long.MAX_VALUE;
+		final int depthLimit = (maxDepth > 0) ? Math.min(maxDepth, MAX_SEARCH_DEPTH) : MAX_SEARCH_DEPTH;
+		
+		searchAborted = false;
+		numNodes = 0L;
+		
+		if (ttNumBits > 0 && transpositionTable == null)
+			transpositionTable = new AlphaBetaTranspositionTable(ttNumBits);
+		if (transpositionTable != null)
+			transpositionTable.startNewSearch();
+		
+		// Killer moves are specific to plies, which are shifted now that moves have been played
+		for (final Move[] killers : killerMoves)
+		{
+			Arrays.fill(killers, null);
+		}
+		
+		// Copy the list of root moves, such that we can reorder it between iterations
+		final FastArrayList<Move> rootMoves = new FastArrayList<Move>(game.moves(context).moves());
+		Move bestMove = rootMoves.get(0);
+		double bestValue = 0.0;
+		int completedDepth = 0;
+		
+		if (rootMoves.size() > 1)
+		{
+			for (int depth = 1; depth <= depthLimit; ++depth)
+			{
+				reachedDepthLimit = false;
+				final int bestIdx = searchRoot(game, context, rootMoves, depth);
+				
+				if (bestIdx >= 0)
+				{
+					// Previous best move is searched first, so even an aborted iteration
+					// only gives us a different move if that move was searched completely
+					// and found to be better
+					bestMove = rootMoves.get(bestIdx);
+					bestValue = lastValue;
+					
+					// Search the best move first in our next iteration
+					rootMoves.set(bestIdx, rootMoves.get(0));
+					rootMoves.set(0, bestMove);
+				}
+				
+				if (searchAborted)
+					break;
+				
+				completedDepth = depth;
+				
+				// No need to search deeper if we searched the complete game tree
+				if (!reachedDepthLimit)
+					break;
+				
+				// Values outside [-1, 1] can only be proven wins or losses
+				if (Math.abs(bestValue) > 1.0)
+					break;
+			}
+		}
+		
+		lastValue = bestValue;
+		lastCompletedDepth = completedDepth;
+		lastNumNodes = numNodes;
+		lastDurationNanos = System.nanoTime() - startTime;
+		
+		return bestMove;
+	}
+	
+	/**
+	 * Runs one iteration of alpha-beta search (with a full window) from the
+	 * root. Sets lastValue to the value of the best move.
+	 * 
+	 * @param game
+	 * @param context
+	 * @param rootMoves
+	 * @param depth
+	 * @return Index of the best move among those that were searched completely,
+	 * or -1 if we were aborted before completing any of them
+	 */
+	private int searchRoot
+	(
+		final Game game,
+		final Context context,
+		final FastArrayList<Move> rootMoves,
+		final int depth
+	)
+	{
+		double alpha = Double.NEGATIVE_INFINITY;
+		int bestIdx = -1;
+		
+		for (int i = 0; i < rootMoves.size(); ++i)
+		{
+			final Context childContext = new Context(context);
+			game.apply(childContext, rootMoves.get(i));
+			final double value = alphaBeta(game, childContext, depth - 1, 1, alpha, Double.POSITIVE_INFINITY);
+			
+			if (searchAborted)
+				break;
+			
+			if (value > alpha)
+			{
+				alpha = value;
+				bestIdx = i;
+			}
+		}
+		
+		lastValue = alpha;
+		return bestIdx;
+	}
+	
+	/**
+	 * Alpha-beta search (minimax formulation).
+	 * 
+	 * @param game
+	 * @param context State to search (will not be modified)
+	 * @param depth Remaining depth
+	 * @param ply Distance from the root
+	 * @param alpha
+	 * @param beta
+	 * @return Value of the state for our player (meaningless if searchAborted is set)
+	 */
+	private double alphaBeta
+	(
+		final Game game,
+		final Context context,
+		final int depth,
+		final int ply,
+		final double alpha,
+		final double beta
+	)
+	{
+		// Respect time limit and GUI user clicking the pause button (only checked every once in a while)
+		if ((++numNodes & (CHECK_INTERVAL - 1)) == 0 && (wantsInterrupt || System.nanoTime() >= stopTime))
+			searchAborted = true;
+		
+		if (searchAborted)
+			return 0.0;
+		
+		if (context.trial().over())
+		{
+			// Terminal state
+			return RankUtils.utilities(context)[player] * (WIN_VALUE - ply * PLY_PENALTY);
+		}
+		
+		if (depth <= 0 || ply >= MAX_SEARCH_DEPTH)
+		{
+			// Depth limit, so use heuristic evaluation
+			reachedDepthLimit = true;
+			return evaluator.evaluate(context)[player];
+		}
+		
+		double a = alpha;
+		double b = beta;
+		
+		// Probe our transposition table
+		final AlphaBetaTranspositionTable tt = transpositionTable;
+		final long key = context.state().fullHash();
+		Move ttMove = null;
+		
+		if (tt != null)
+		{
+			final int slot = tt.find(key);
+			if (slot != AlphaBetaTranspositionTable.NOT_FOUND)
+			{
+				ttMove = tt.bestMove(slot);
+				
+				if (tt.depth(slot) >= depth)
+				{
+					final double ttValue = valueFromTT(tt.value(slot), ply);
+					final byte flag = tt.flag(slot);
+					
+					// Unless the entry is an exact proven win or loss, we don't know whether
+					// the search that stored it was cut off by a depth limit (entries of earlier
+					// searches usually were), so we'll have to keep deepening
+					final boolean proven = (flag == AlphaBetaTranspositionTable.EXACT && Math.abs(ttValue) > 1.0);
+					
+					if (flag == AlphaBetaTranspositionTable.EXACT)
+					{
+						if (!proven)
+							reachedDepthLimit = true;
+						
+						return ttValue;
+					}
+					else if (flag == AlphaBetaTranspositionTable.LOWER_BOUND)
+						a = Math.max(a, ttValue);
+					else
+						b = Math.min(b, ttValue);
+					
+					if (a >= b)
+					{
+						reachedDepthLimit = true;
+						return ttValue;
+					}
+				}
+			}
+		}
+		
+		final FastArrayList<Move> legalMoves = game.moves(context).moves();
+		final int numMoves = legalMoves.size();
+		
+		if (numMoves == 0)
+		{
+			reachedDepthLimit = true;
+			return evaluator.evaluate(context, 0)[player];
+		}
+		
+		final boolean maximising = (context.state().mover() == player);
+		final int[] orderScores = orderScores(legalMoves, ttMove, ply);
+		
+		double bestValue = maximising ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		Move bestMove = null;
+		
+		for (int n = 0; n < numMoves; ++n)
+		{
+			// Pick the remaining move with the highest ordering score; we often
+			// get a cutoff after only a few moves, so this is cheaper than sorting
+			int idx = 0;
+			for (int i = 1; i < numMoves; ++i)
+			{
+				if (orderScores[i] > orderScores[idx])
+					idx = i;
+			}
+			orderScores[idx] = Integer.MIN_VALUE;
+			
+			final Move move = legalMoves.get(idx);
+			final Context childContext = new Context(context);
+			game.apply(childContext, move);
+			final double value = alphaBeta(game, childContext, depth - 1, ply + 1, a, b);
+			
+			if (searchAborted)
+				return 0.0;
+			
+			if (maximising)
+			{
+				if (value > bestValue)
+				{
+					bestValue = value;
+					bestMove = move;
+				}
+				a = Math.max(a, value);
+			}
+			else
+			{
+				if (value < bestValue)
+				{
+					bestValue = value;
+					bestMove = move;
+				}
+				b = Math.min(b, value);
+			}
+			
+			if (a >= b)
+			{
+				// Cutoff
+				storeKillerMove(move, ply);
+				updateHistory(move, depth);
+				break;
+			}
+		}
+		
+		if (tt != null)
+		{
+			final byte flag;
+			if (bestValue <= alpha)
+				flag = AlphaBetaTranspositionTable.UPPER_BOUND;
+			else if (bestValue >= beta)
+				flag = AlphaBetaTranspositionTable.LOWER_BOUND;
+			else
+				flag = AlphaBetaTranspositionTable.EXACT;
+			
+			tt.store(key, depth, valueToTT(bestValue, ply), flag, bestMove);
+		}
+		
+		return bestValue;
+	}
+	
+	/**
+	 * Converts a value to store in our transposition table. Values of proven
+	 * wins and losses depend on their distance from the root (quicker wins are
+	 * better), but the same state may be found again at a different distance 
+	 * from the root. Therefore, we store them relative to the node itself.
+	 * 
+	 * @param value Value relative to the root
+	 * @param ply Distance of the node from the root
+	 * @return Value to store in our transposition table
+	 */
+	private static double valueToTT(final double value, final int ply)
+	{
+		if (value > 1.0)
+			return value + ply * PLY_PENALTY;
+		else if (value < -1.0)
+			return value - ply * PLY_PENALTY;
+		
+		return value;
+	}
+	
+	/**
+	 * Inverse of valueToTT()
+	 * 
+	 * @param ttValue Value stored in our transposition table
+	 * @param ply Distance of the node from the root
+	 * @return Value relative to the root
+	 */
+	private static double valueFromTT(final double ttValue, final int ply)
+	{
+		if (ttValue > 1.0)
+			return ttValue - ply * PLY_PENALTY;
+		else if (ttValue < -1.0)
+			return ttValue + ply * PLY_PENALTY;
+		
+		return ttValue;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param legalMoves
+	 * @param ttMove Best move from transposition table (may be null)
+	 * @param ply
+	 * @return Move ordering scores for all given moves (higher = search earlier)
+	 */
+	private int[] orderScores(final FastArrayList<Move> legalMoves, final Move ttMove, final int ply)
+	{
+		final int numMoves = legalMoves.size();
+		final int[] scores = new int[numMoves];
+		
+		final long ttMoveKey = (ttMove == null) ? 0L : MoveKeys.key(ttMove);
+		final Move[] killers = killerMoves[ply];
+		final long killerKey0 = (killers[0] == null) ? 0L : MoveKeys.key(killers[0]);
+		final long killerKey1 = (killers[1] == null) ? 0L : MoveKeys.key(killers[1]);
+		
+		for (int i = 0; i < numMoves; ++i)
+		{
+			final long key = MoveKeys.key(legalMoves.get(i));
+			
+			if (ttMove != null && key == ttMoveKey)
+				scores[i] = TT_MOVE_SCORE;
+			else if (killers[0] != null && key == killerKey0)
+				scores[i] = KILLER_MOVE_SCORE + 1;
+			else if (killers[1] != null && key == killerKey1)
+				scores[i] = KILLER_MOVE_SCORE;
+			else
+				scores[i] = historyScores[historyIndex(key)];
+		}
+		
+		return scores;
+	}
+	
+	/**
+	 * Remembers the given move as a killer move for the given ply
+	 * @param move
+	 * @param ply
+	 */
+	private void storeKillerMove(final Move move, final int ply)
+	{
+		final Move[] killers = killerMoves[ply];
+		if (killers[0] != null && MoveKeys.key(killers[0]) == MoveKeys.key(move))
+			return;
+		
+		killers[1] = killers[0];
+		killers[0] = move;
+	}
+	
+	/**
+	 * Rewards the given move (which caused a cutoff) in our history table
+	 * @param move
+	 * @param depth Remaining depth of the search in which it caused a cutoff
+	 */
+	private void updateHistory(final Move move, final int depth)
+	{
+		final int idx = historyIndex(MoveKeys.key(move));
+		historyScores[idx] += depth * depth;
+		
+		if (historyScores[idx] > MAX_HISTORY_SCORE)
+		{
+			// Keep scores below those of killer moves, and let old information fade
+			for (int i = 0; i < historyScores.length; ++i)
+			{
+				historyScores[i] >>= 1;
+			}
+		}
+	}
+	
+	/**
+	 * @param moveKey
+	 * @return Index in our history table for the given move key
+	 */
+	private static int historyIndex(final long moveKey)
+	{
+		return MoveKeys.index(moveKey, (1 << HISTORY_NUM_BITS) - 1);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Sets the evaluator we use for non-terminal states at the depth limit
+	 * 
+	 * @param evaluator
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleAlphaBeta setEvaluator(final StateEvaluator evaluator)
+	{
+		this.evaluator = evaluator;
+		return this;
+	}
+	
+	/**
+	 * Sets the size of our transposition table. Must be called before
+	 * we start searching.
+	 * 
+	 * @param numBits The table will have 2^numBits entries (0 to disable it)
+	 * @return This AI, such that calls can be chained
+	 */
+	public ExampleAlphaBeta setTranspositionTable(final int numBits)
+	{
+		this.ttNumBits = numBits;
+		this.transpositionTable = null;
+		return this;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	@Override
+	public void initAI(final Game game, final int playerID)
+	{
+		this.player = playerID;
+		
+		// Forget everything we learned in previous games
+		if (transpositionTable != null)
+			transpositionTable.clear();
+		Arrays.fill(historyScores, 0);
+		lastValue = 0.0;
+		lastCompletedDepth = 0;
+		lastNumNodes = 0L;
+		lastDurationNanos = 0L;
+	}
+	
+	@Override
+	public void closeAI()
+	{
+		// Free the memory of our transposition table
+		transpositionTable = null;
+	}
+	
+	@Override
+	public double estimateValue()
+	{
+		return Math.max(-1.0, Math.min(1.0, lastValue));
+	}
+	
+	@Override
+	public String generateAnalysisReport()
+	{
+		if (lastCompletedDepth == 0)
+			return null;
+		
+		final double seconds = lastDurationNanos / 1000000000.0;
+		return String.format
+				(
+					"Completed depth %d, %d nodes (%.0f nodes/s), value %.3f",
+					Integer.valueOf(lastCompletedDepth),
+					Long.valueOf(lastNumNodes),
+					Double.valueOf((seconds > 0.0) ? lastNumNodes / seconds : 0.0),
+					Double.valueOf(lastValue)
+				);
+	}
+	
+	@Override
+	public boolean supportsGame(final Game game)
+	{
+		if (game.isStochasticGame())
+			return false;
+		
+		if (!game.isAlternatingMoveGame())
+			return false;
+		
+		return (game.players().count() == 2);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}
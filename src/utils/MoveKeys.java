@@ -0,0 +1,57 @@
+package utils;
+
+import other.move.Move;
+
+/**
+ * Keys identifying moves by their mover, from-position and to-position,
+ * as used to index tables of move statistics (AMAF statistics, MAST
+ * averages, history heuristic, etc.). Different moves with the same mover,
+ * from-position and to-position get the same key.
+ * 
+ * @author Dennis Soemers
+ */
+public final class MoveKeys
+{
+	
+	//-------------------------------------------------------------------------
+	
+	/** Multiplier used to mix the components of a move into a key */
+	private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 */
+	private MoveKeys()
+	{
+		// do not instantiate
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param move
+	 * @return Key identifying the given move by its mover, from-position and to-position
+	 */
+	public static long key(final Move move)
+	{
+		long key = move.mover();
+		key = key * MULTIPLIER + move.from();
+		key = key * MULTIPLIER + move.to();
+		return key;
+	}
+	
+	/**
+	 * @param key
+	 * @param mask Mask for the number of entries in a table (power of 2, minus 1)
+	 * @return Index in a table with (mask + 1) entries for the given key
+	 */
+	public static int index(final long key, final int mask)
+	{
+		return ((int) (key ^ (key >>> 32))) & mask;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+}